@@ -12,6 +12,8 @@ REM    PPM Root
 REM ####################################################
 set PPM_SERVER_ROOT=C:\ppm\SourceCode\java\target\jboss\server\_common
 set JDK_LIB_DIR=C:\Java\jdk1.8.0_261\jre\lib
+REM JUnit 4 & hamcrest-core jars, only needed to run the tests
+set JUNIT_LIB_DIR=C:\Java\junit
 
 
 REM ####################################################
@@ -22,8 +22,15 @@ public class SmartsheetConstants {
 
     public static final String API_GET_SINGLE_SHEET = API_V2 + "sheets/";
 
+    public static final String API_WORKSPACES = API_V2 + "workspaces/";
+
+    public static final String API_FOLDERS = API_V2 + "folders/";
+
+    public static final String API_SEARCH = API_V2 + "search";
+
     public static final String KEY_WP_SHEET = "wpSheet";
     public static final String KEY_WP_SHEET_RESTRICTION = "wpSheetRestriction";
+    public static final String KEY_WP_SHEET_SEARCH = "wpSheetSearch";
     public static final String KEY_TMF_TASK_NAME = "tmfTaskName";
     public static final String KEY_TMF_TASK_START_DATE = "tmfTaskStartDate";
     public static final String KEY_TMF_TASK_FINISH_DATE = "tmfTaskFinishDate";
@@ -32,9 +39,15 @@ public class SmartsheetConstants {
     public static final String KEY_TMF_TASK_ACTUAL_EFFORT = "tmfTaskActualEffort";
     public static final String KEY_TMF_TASK_SCHEDULED_EFFORT = "tmfTaskScheduledEffort";
     public static final String KEY_TMF_TASK_ERE = "tmfTaskEstimatedRemainingEffort";
+    // Keys of all the task fields that can be mapped to a column, i.e. of all the columns retrieved when syncing a sheet.
+    public static final String[] KEYS_TMF_TASK_FIELDS = {KEY_TMF_TASK_NAME, KEY_TMF_TASK_START_DATE, KEY_TMF_TASK_FINISH_DATE,
+            KEY_TMF_TASK_RESOURCES, KEY_TMF_TASK_PERCENT_COMPLETE, KEY_TMF_TASK_ACTUAL_EFFORT, KEY_TMF_TASK_SCHEDULED_EFFORT, KEY_TMF_TASK_ERE};
+    public static final String KEY_ROLL_UP_SUMMARY_TASKS = "rollUpSummaryTasks";
     public static final String KEY_FORCE_ACCESS_TOKEN_USE = "forceAccessTokenUse";
     public static final String KEY_USER_ACCESS_TOKEN = "userAccessToken";
     public static final String WORKSPACE_RESTRICTION_PREFIX = "w_";
     public static final String FOLDER_RESTRICTION_PREFIX = "f_";
     public static final String HOME_PATH = "[Home]/";
+    // Column type of multi-contact columns, only returned when retrieving columns with level=1.
+    public static final String MULTI_CONTACT_LIST_TYPE = "MULTI_CONTACT_LIST";
 }
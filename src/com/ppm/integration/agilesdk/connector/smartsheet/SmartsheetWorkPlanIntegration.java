@@ -6,20 +6,22 @@
 package com.ppm.integration.agilesdk.connector.smartsheet;
 
 import com.ppm.integration.agilesdk.ValueSet;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.ColumnMappingPlan;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.ColumnarSheet;
 import com.ppm.integration.agilesdk.connector.smartsheet.model.SmartsheetSheet;
 import com.ppm.integration.agilesdk.connector.smartsheet.model.RowExternalTask;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.RowExternalTasks;
+import com.ppm.integration.agilesdk.connector.smartsheet.service.PpmUserResolver;
 import com.ppm.integration.agilesdk.connector.smartsheet.service.SmartsheetService;
 import com.ppm.integration.agilesdk.connector.smartsheet.service.SmartsheetServiceProvider;
 import com.ppm.integration.agilesdk.pm.*;
 import com.ppm.integration.agilesdk.provider.LocalizationProvider;
 import com.ppm.integration.agilesdk.provider.Providers;
-import com.ppm.integration.agilesdk.provider.UserProvider;
 import com.ppm.integration.agilesdk.ui.*;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class SmartsheetWorkPlanIntegration extends WorkPlanIntegration {
 
@@ -29,15 +31,44 @@ public class SmartsheetWorkPlanIntegration extends WorkPlanIntegration {
     public SmartsheetWorkPlanIntegration() {
     }
 
-    private SmartsheetService service;
+    private static final int MAX_CACHED_TASK_TREES = Integer.getInteger("smartsheet.sheetCache.maxSheets", 200);
 
-    private synchronized SmartsheetService getService(ValueSet config) {
-        if (service == null) {
-            service = SmartsheetServiceProvider.get(config);
-        } else {
-            service.refreshRestConfigIfNeeded(config);
+    // Task trees built from the latest retrieved version of each sheet, per mapping. Guarded by itself.
+    private static final Map<String, TaskTree> taskTreesByMapping = new LinkedHashMap<String, TaskTree>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TaskTree> eldest) {
+            return size() > MAX_CACHED_TASK_TREES;
+        }
+    };
+
+    /**
+     * Immutable tasks hierarchy of a work plan, with the columnar sheet and the PPM users of the contacts it was built from.
+     * Tasks can't be modified once the tree is built (their children lists are unmodifiable and their getters return copies),
+     * so the same tree is shared by all the syncs of the sheet with the same mapping, as long as the sheet & the users don't change.
+     */
+    private static class TaskTree {
+        private final ColumnarSheet sheet;
+        private final Map<String, List<Long>> resourcesIdsByContacts;
+        private final List<ExternalTask> rootTasks;
+
+        private TaskTree(ColumnarSheet sheet, Map<String, List<Long>> resourcesIdsByContacts, List<ExternalTask> rootTasks) {
+            this.sheet = sheet;
+            this.resourcesIdsByContacts = resourcesIdsByContacts;
+            this.rootTasks = rootTasks;
+        }
+
+        private boolean isBuiltFrom(ColumnarSheet sheet, Map<String, List<Long>> resourcesIdsByContacts) {
+            // A new columnar sheet is retrieved whenever the sheet version changes.
+            return this.sheet == sheet && this.resourcesIdsByContacts.equals(resourcesIdsByContacts);
         }
-        return service;
+    }
+
+    /**
+     * Each call gets its own service, using the integration token of the passed config: this integration is shared by all users,
+     * so a service must never be reused with the token of another user. HTTP connections and caches are shared by all the services.
+     */
+    private SmartsheetService getService(ValueSet config) {
+        return SmartsheetServiceProvider.get(config);
     }
 
     @Override
@@ -60,23 +91,36 @@ public class SmartsheetWorkPlanIntegration extends WorkPlanIntegration {
             DynamicDropdown databasesList = new DynamicDropdown(SmartsheetConstants.KEY_WP_SHEET, "WP_SHEET", true) {
                 @Override
                 public List<String> getDependencies() {
-                    return Arrays.asList(new String[]{SmartsheetConstants.KEY_ACCESS_TOKEN, SmartsheetConstants.KEY_USER_ACCESS_TOKEN});
+                    return Arrays.asList(new String[]{SmartsheetConstants.KEY_ACCESS_TOKEN, SmartsheetConstants.KEY_USER_ACCESS_TOKEN, SmartsheetConstants.KEY_WP_SHEET_SEARCH});
                 }
 
                 @Override
                 public List<Option> getDynamicalOptions(ValueSet values) {
 
                     String sheetRestriction = values.get(SmartsheetConstants.KEY_WP_SHEET_RESTRICTION);
+                    String sheetSearch = values.get(SmartsheetConstants.KEY_WP_SHEET_SEARCH);
 
-                    final List<SmartsheetSheet> sheets = getService(values).getAllSheets(sheetRestriction);
+                    final List<SmartsheetSheet> sheets;
+
+                    if (StringUtils.isBlank(sheetSearch)) {
+                        sheets = getService(values).getAllSheets(sheetRestriction);
+                        Collections.sort(sheets, (o1, o2) -> o1.getFullName().compareToIgnoreCase(o2.getFullName()));
+                    } else {
+                        // Searching sheets by name lets Smartsheet do the filtering, instead of retrieving & sorting all the sheets. Results are already sorted.
+                        sheets = getService(values).searchSheets(sheetSearch.trim(), sheetRestriction);
+                    }
 
-                    Collections.sort(sheets, (o1, o2) -> o1.getFullName().compareToIgnoreCase(o2.getFullName()));
                     List<Option> options = new ArrayList<>();
                     sheets.stream().forEach(sheet -> options.add(new DynamicDropdown.Option(sheet.id, sheet.getFullName())));
                     return options;
                 }
             };
 
+            fields.add(new LabelText("LABEL_SHEET_SEARCH", "LABEL_SHEET_SEARCH",
+                    "Only list sheets whose name contains:", false));
+
+            fields.add(new PlainText(SmartsheetConstants.KEY_WP_SHEET_SEARCH, "WP_SHEET_SEARCH", "", false));
+
             fields.add(new LabelText("LABEL_SHEET_TO_SYNC", "LABEL_SHEET_TO_SYNC",
                     "Select what sheet to import:", true));
 
@@ -127,7 +171,7 @@ public class SmartsheetWorkPlanIntegration extends WorkPlanIntegration {
         taskFields.add(createTaskField(SmartsheetConstants.KEY_TMF_TASK_NAME, "LABEL_TMF_TASK_NAME", true, "TEXT_NUMBER"));
         taskFields.add(createTaskField(SmartsheetConstants.KEY_TMF_TASK_START_DATE, "LABEL_TMF_TASK_START_DATE", false, "DATE", "ABSTRACT_DATETIME"));
         taskFields.add(createTaskField(SmartsheetConstants.KEY_TMF_TASK_FINISH_DATE, "LABEL_TMF_TASK_FINISH_DATE", false, "DATE", "ABSTRACT_DATETIME"));
-        taskFields.add(createTaskField(SmartsheetConstants.KEY_TMF_TASK_RESOURCES, "LABEL_TMF_TASK_RESOURCES", false, "CONTACT_LIST"));
+        taskFields.add(createTaskField(SmartsheetConstants.KEY_TMF_TASK_RESOURCES, "LABEL_TMF_TASK_RESOURCES", false, "CONTACT_LIST", SmartsheetConstants.MULTI_CONTACT_LIST_TYPE));
 
         taskFields.add(new LineBreaker());
         taskFields.add(new LabelText("", "LABEL_TASK_EFFORT_FIELD_NOTICE", "Effort fields - pick 2", false));
@@ -136,6 +180,9 @@ public class SmartsheetWorkPlanIntegration extends WorkPlanIntegration {
         taskFields.add(createTaskField(SmartsheetConstants.KEY_TMF_TASK_SCHEDULED_EFFORT, "LABEL_TMF_TASK_SCHEDULED_EFFORT", false, "TEXT_NUMBER"));
         taskFields.add(createTaskField(SmartsheetConstants.KEY_TMF_TASK_ERE, "LABEL_TMF_TASK_ERE", false, "TEXT_NUMBER"));
 
+        taskFields.add(new LineBreaker());
+        taskFields.add(new CheckBox(SmartsheetConstants.KEY_ROLL_UP_SUMMARY_TASKS, "LABEL_ROLL_UP_SUMMARY_TASKS", false));
+
         taskFields.add(new LineBreaker());
 
         return taskFields;
@@ -186,40 +233,49 @@ public class SmartsheetWorkPlanIntegration extends WorkPlanIntegration {
 
         final String dbId = values.get(SmartsheetConstants.KEY_WP_SHEET);
 
-        final List<SmartsheetSheet.SmartsheetRow> rows = Arrays.asList(getService(values).getSmartsheetSheet(dbId).rows);
+        // Only the values of the mapped columns are retrieved, and kept as columnar values rather than rows & cells.
+        // If the sheet didn't change since last sync, we get the same immutable columnar sheet as last time.
+        final ColumnarSheet columnarSheet = getService(values).getLatestColumnarSheet(dbId, values);
 
-        final UserProvider userProvider = SmartsheetServiceProvider.getUserProvider();
+        final boolean rollUpSummaryTasks = "true".equals(values.get(SmartsheetConstants.KEY_ROLL_UP_SUMMARY_TASKS));
+
+        final PpmUserResolver userResolver = new PpmUserResolver(SmartsheetServiceProvider.getUserProvider());
+
+        final String treeKey = dbId + " " + ColumnMappingPlan.getMappingKey(values) + " " + rollUpSummaryTasks;
 
         return new ExternalWorkPlan() {
 
             @Override
             public List<ExternalTask> getRootTasks() {
 
-                final Map<String, RowExternalTask> tasksById = new HashMap<>();
+                // Each distinct contact is only looked up once, and most of them are already in cache from previous syncs.
+                final Map<String, List<Long>> resourcesIdsByContacts = userResolver.resolve(columnarSheet.getDistinctTexts(ColumnMappingPlan.RESOURCES));
+
+                TaskTree tree;
+                synchronized (taskTreesByMapping) {
+                    tree = taskTreesByMapping.get(treeKey);
+                }
 
-                // This gives a flat list of tasks
-                List<RowExternalTask> allTasks = rows.stream().filter(row -> !row.isBlank()).map(row -> new RowExternalTask(row, values, userProvider)).collect(Collectors.toList());
+                // Tasks are only rebuilt if the sheet changed, or if the PPM users matching the contacts changed, since last sync.
+                if (tree == null || !tree.isBuiltFrom(columnarSheet, resourcesIdsByContacts)) {
+                    // This gives a flat list of tasks, converted in parallel for big sheets.
+                    List<RowExternalTask> allTasks = RowExternalTasks.create(columnarSheet, resourcesIdsByContacts);
 
-                allTasks.stream().forEach(task -> {
-                    tasksById.put(task.getId(), task);
-                });
+                    List<ExternalTask> rootTasks = RowExternalTasks.buildHierarchy(columnarSheet, allTasks);
 
-                List<ExternalTask> rootTasks = new ArrayList<>();
+                    if (rollUpSummaryTasks) {
+                        RowExternalTasks.rollUpSummaryTasks(rootTasks, allTasks.size());
+                    }
 
-                // Let's build the hierarchy.
-                allTasks.stream().forEach(task -> {
-                    String parentId = task.getParentId();
-                    if (StringUtils.isBlank(parentId) || !tasksById.containsKey(parentId)) {
-                        rootTasks.add(task);
-                    } else {
-                        tasksById.get(parentId).addChild(task);
+                    tree = new TaskTree(columnarSheet, resourcesIdsByContacts, rootTasks);
+                    synchronized (taskTreesByMapping) {
+                        taskTreesByMapping.put(treeKey, tree);
                     }
-                });
+                }
 
-                return rootTasks;
+                return tree.rootTasks;
             }
         };
-
     }
 
     /**
@@ -0,0 +1,176 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import com.ppm.integration.agilesdk.ValueSet;
+import com.ppm.integration.agilesdk.connector.smartsheet.SmartsheetConstants;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * How the columns of a sheet are mapped to the task fields, compiled once per work plan and shared by all its rows.
+ *
+ * Mapped columns are sorted in the order of the sheet columns, which is also the order of the cells in each row,
+ * so the cells of the mapped columns can be picked in a single pass over the cells of a row.
+ */
+public class ColumnMappingPlan {
+
+    // Task fields, in the same order as SmartsheetConstants.KEYS_TMF_TASK_FIELDS.
+    public static final int NAME = 0;
+    public static final int START_DATE = 1;
+    public static final int FINISH_DATE = 2;
+    public static final int RESOURCES = 3;
+    public static final int PERCENT_COMPLETE = 4;
+    public static final int ACTUAL_EFFORT = 5;
+    public static final int SCHEDULED_EFFORT = 6;
+    public static final int ERE = 7;
+
+    static final int FIELDS_COUNT = SmartsheetConstants.KEYS_TMF_TASK_FIELDS.length;
+
+    // Smartsheet IDs are positive.
+    private static final long NO_COLUMN = 0L;
+
+    private final boolean[] mappedFields = new boolean[FIELDS_COUNT];
+
+    // Mapped column IDs in sheet columns order, and the task fields each of them is mapped to.
+    private final long[] columnIds;
+
+    private final int[][] fieldsByPosition;
+
+    private final LongIntHashMap positionsByColumnId;
+
+    public ColumnMappingPlan(SmartsheetSheet sheet, ValueSet config) {
+
+        // Column ID of each task field, parsed once; NO_COLUMN if the field isn't mapped to a valid column ID.
+        long[] columnIdsByField = new long[FIELDS_COUNT];
+
+        for (int field = 0; field < FIELDS_COUNT; field++) {
+            String columnId = config.get(SmartsheetConstants.KEYS_TMF_TASK_FIELDS[field]);
+            mappedFields[field] = columnId != null;
+            columnIdsByField[field] = parseColumnId(columnId);
+        }
+
+        long[] orderedColumnIds = new long[FIELDS_COUNT];
+        int columnCount = 0;
+        if (sheet.columns != null) {
+            for (SmartsheetSheet.SmartsheetColumn column : sheet.columns) {
+                long columnId = parseColumnId(column.id);
+                if (columnId != NO_COLUMN && contains(columnIdsByField, FIELDS_COUNT, columnId) && !contains(orderedColumnIds, columnCount, columnId)) {
+                    orderedColumnIds[columnCount++] = columnId;
+                }
+            }
+        }
+        // Columns that don't exist in the sheet (anymore) never match any cell, but are still mapped.
+        for (long columnId : columnIdsByField) {
+            if (columnId != NO_COLUMN && !contains(orderedColumnIds, columnCount, columnId)) {
+                orderedColumnIds[columnCount++] = columnId;
+            }
+        }
+
+        columnIds = Arrays.copyOf(orderedColumnIds, columnCount);
+        fieldsByPosition = new int[columnCount][];
+        positionsByColumnId = new LongIntHashMap(columnCount);
+
+        for (int position = 0; position < columnCount; position++) {
+            long columnId = columnIds[position];
+            fieldsByPosition[position] = IntStream.range(0, FIELDS_COUNT).filter(field -> columnIdsByField[field] == columnId).toArray();
+            positionsByColumnId.put(columnId, position);
+        }
+    }
+
+    /**
+     * @return the column ID, or NO_COLUMN if it's blank or not a valid Smartsheet ID.
+     */
+    private static long parseColumnId(String columnId) {
+        if (StringUtils.isBlank(columnId)) {
+            return NO_COLUMN;
+        }
+        try {
+            long id = Long.parseLong(columnId);
+            return id > 0 ? id : NO_COLUMN;
+        } catch (NumberFormatException e) {
+            return NO_COLUMN;
+        }
+    }
+
+    private static boolean contains(long[] values, int length, long value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the IDs of all the Smartsheet columns mapped to a task field.
+     */
+    public static Set<String> getMappedColumnIds(ValueSet config) {
+        Set<String> columnIds = new HashSet<>();
+        for (String key : SmartsheetConstants.KEYS_TMF_TASK_FIELDS) {
+            String columnId = config.get(key);
+            if (!StringUtils.isBlank(columnId)) {
+                columnIds.add(columnId);
+            }
+        }
+        return columnIds;
+    }
+
+    /**
+     * @return a key identifying which column is mapped to each task field, so that sheets built with the same mapping can be shared.
+     */
+    public static String getMappingKey(ValueSet config) {
+        StringBuilder key = new StringBuilder();
+        for (String fieldKey : SmartsheetConstants.KEYS_TMF_TASK_FIELDS) {
+            // Unmapped (null) and blank fields are kept apart, as only the latter count as mapped.
+            key.append('|').append(config.get(fieldKey));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return whether a column is set in the config for this task field, even if it's not a column of the sheet.
+     */
+    public boolean isMapped(int field) {
+        return mappedFields[field];
+    }
+
+    /**
+     * @return the cells of the row mapped to each task field, indexed by task field; null for fields without any cell in the row.
+     */
+    public SmartsheetSheet.SmartsheetRow.SmartsheetCell[] getMappedCells(SmartsheetSheet.SmartsheetRow row) {
+        SmartsheetSheet.SmartsheetRow.SmartsheetCell[] cellsByField = new SmartsheetSheet.SmartsheetRow.SmartsheetCell[FIELDS_COUNT];
+
+        if (row.cells == null) {
+            return cellsByField;
+        }
+
+        int nextPosition = 0;
+
+        for (SmartsheetSheet.SmartsheetRow.SmartsheetCell cell : row.cells) {
+            int position;
+
+            // Cells come in columns order, so the cell is usually the one of the next mapped column.
+            if (nextPosition < columnIds.length && columnIds[nextPosition] == cell.columnId) {
+                position = nextPosition;
+            } else {
+                int mappedPosition = positionsByColumnId.get(cell.columnId);
+                if (mappedPosition == LongIntHashMap.NO_VALUE) {
+                    // Not a mapped column.
+                    continue;
+                }
+                position = mappedPosition;
+            }
+
+            for (int field : fieldsByPosition[position]) {
+                cellsByField[field] = cell;
+            }
+
+            nextPosition = position + 1;
+        }
+
+        return cellsByField;
+    }
+}
@@ -0,0 +1,369 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import com.kintana.core.logging.LogManager;
+import com.kintana.core.logging.Logger;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Values of the mapped columns of a sheet, stored by column in typed arrays rather than as cells Strings.
+ *
+ * Each value is parsed once when building this object: numbers (efforts, percent complete) are kept in double[], dates in long[] of epoch millis,
+ * and texts (name, contacts) as int codes into a dictionary shared by all the text columns.
+ * A bitmap per date & number column tells which rows have a value, while rows without text have code -1.
+ * Rows are referenced by their index in the sheet. All the rows of the sheet are kept, including blank rows (without any value in the mapped columns).
+ *
+ * Once built, a columnar sheet is never modified, so it can be shared and cached. It is built row by row with a {@link Builder},
+ * either from parsed rows or by copying rows of another columnar sheet of the same mapping.
+ */
+public class ColumnarSheet {
+
+    private final static Logger logger = LogManager.getLogger(ColumnarSheet.class);
+
+    private static final int NO_TEXT = -1;
+
+    /**
+     * Parent index of top level rows, and of rows whose parent row is not in the sheet.
+     */
+    public static final int NO_PARENT = -1;
+
+    private final ColumnMappingPlan mappingPlan;
+
+    private final int rowCount;
+
+    private final long[] rowIds;
+
+    private final long[] parentIds; // 0 for top level rows.
+
+    private final int[] parentIndexes;
+
+    private final BitSet blankRows;
+
+    // Per task field, only allocated for the mapped fields of the right type.
+    private final int[][] textCodes;
+
+    private final long[][] dates;
+
+    private final double[][] numbers;
+
+    private final BitSet[] hasValue;
+
+    private final String[] dictionary;
+
+    private ColumnarSheet(Builder builder) {
+        mappingPlan = builder.mappingPlan;
+        rowCount = builder.rowCount;
+        rowIds = Arrays.copyOf(builder.rowIds, rowCount);
+        parentIds = Arrays.copyOf(builder.parentIds, rowCount);
+        blankRows = builder.blankRows;
+        hasValue = builder.hasValue;
+        dictionary = builder.texts.toArray(new String[builder.texts.size()]);
+
+        textCodes = new int[ColumnMappingPlan.FIELDS_COUNT][];
+        dates = new long[ColumnMappingPlan.FIELDS_COUNT][];
+        numbers = new double[ColumnMappingPlan.FIELDS_COUNT][];
+        for (int field = 0; field < ColumnMappingPlan.FIELDS_COUNT; field++) {
+            textCodes[field] = builder.textCodes[field] == null ? null : Arrays.copyOf(builder.textCodes[field], rowCount);
+            dates[field] = builder.dates[field] == null ? null : Arrays.copyOf(builder.dates[field], rowCount);
+            numbers[field] = builder.numbers[field] == null ? null : Arrays.copyOf(builder.numbers[field], rowCount);
+        }
+
+        LongIntHashMap rowIndexesById = new LongIntHashMap(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            rowIndexesById.put(rowIds[i], i);
+        }
+
+        parentIndexes = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            int parentIndex = parentIds[i] == 0L ? LongIntHashMap.NO_VALUE : rowIndexesById.get(parentIds[i]);
+            parentIndexes[i] = parentIndex == LongIntHashMap.NO_VALUE ? NO_PARENT : parentIndex;
+        }
+    }
+
+    /**
+     * Adds rows one at a time, in the sheet order, so that parsed rows can be dropped as soon as they're added. Must not be used anymore once built.
+     */
+    public static class Builder {
+
+        private final ColumnMappingPlan mappingPlan;
+
+        private final SmartsheetDateParser dateParser = new SmartsheetDateParser();
+
+        private final Map<String, Integer> codesByText = new HashMap<>();
+
+        private final List<String> texts = new ArrayList<>();
+
+        private int rowCount = 0;
+
+        private long[] rowIds;
+
+        private long[] parentIds;
+
+        private final BitSet blankRows = new BitSet();
+
+        private final int[][] textCodes = new int[ColumnMappingPlan.FIELDS_COUNT][];
+
+        private final long[][] dates = new long[ColumnMappingPlan.FIELDS_COUNT][];
+
+        private final double[][] numbers = new double[ColumnMappingPlan.FIELDS_COUNT][];
+
+        private final BitSet[] hasValue = new BitSet[ColumnMappingPlan.FIELDS_COUNT];
+
+        /**
+         * @param expectedRowCount used as initial capacity, arrays grow if more rows are added.
+         */
+        public Builder(ColumnMappingPlan mappingPlan, int expectedRowCount) {
+            this.mappingPlan = mappingPlan;
+
+            int capacity = Math.max(16, expectedRowCount);
+            rowIds = new long[capacity];
+            parentIds = new long[capacity];
+
+            for (int field : new int[] {ColumnMappingPlan.NAME, ColumnMappingPlan.RESOURCES}) {
+                if (mappingPlan.isMapped(field)) {
+                    textCodes[field] = new int[capacity];
+                }
+            }
+            for (int field : new int[] {ColumnMappingPlan.START_DATE, ColumnMappingPlan.FINISH_DATE}) {
+                if (mappingPlan.isMapped(field)) {
+                    dates[field] = new long[capacity];
+                    hasValue[field] = new BitSet(capacity);
+                }
+            }
+            for (int field : new int[] {ColumnMappingPlan.PERCENT_COMPLETE, ColumnMappingPlan.ACTUAL_EFFORT, ColumnMappingPlan.SCHEDULED_EFFORT, ColumnMappingPlan.ERE}) {
+                if (mappingPlan.isMapped(field)) {
+                    numbers[field] = new double[capacity];
+                    hasValue[field] = new BitSet(capacity);
+                }
+            }
+        }
+
+        /**
+         * Adds a parsed row, whose cells are null if it's blank.
+         */
+        public void addRow(SmartsheetSheet.SmartsheetRow row) {
+            int i = newRow(row.id, row.parentId);
+
+            if (row.cells == null) {
+                blankRows.set(i);
+                return;
+            }
+
+            SmartsheetSheet.SmartsheetRow.SmartsheetCell[] cells = mappingPlan.getMappedCells(row);
+
+            for (int field = 0; field < ColumnMappingPlan.FIELDS_COUNT; field++) {
+                SmartsheetSheet.SmartsheetRow.SmartsheetCell cell = cells[field];
+
+                if (textCodes[field] != null) {
+                    textCodes[field][i] = getTextCode(cell == null ? null : cell.value);
+                } else if (dates[field] != null) {
+                    long date = cell == null ? SmartsheetDateParser.NO_DATE : dateParser.parseEpochMillis(cell.value);
+                    if (date != SmartsheetDateParser.NO_DATE) {
+                        dates[field][i] = date;
+                        hasValue[field].set(i);
+                    }
+                } else if (numbers[field] != null) {
+                    Double number = field == ColumnMappingPlan.PERCENT_COMPLETE ? parsePercent(cell) : parseNumber(cell);
+                    if (number != null) {
+                        numbers[field][i] = number;
+                        hasValue[field].set(i);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds a copy of a row of another columnar sheet built with the same mapping, without parsing its values again.
+         */
+        public void addRow(ColumnarSheet sheet, int row) {
+            int i = newRow(sheet.rowIds[row], sheet.parentIds[row]);
+
+            if (sheet.blankRows.get(row)) {
+                blankRows.set(i);
+            }
+
+            for (int field = 0; field < ColumnMappingPlan.FIELDS_COUNT; field++) {
+                if (textCodes[field] != null) {
+                    textCodes[field][i] = getTextCode(sheet.getText(field, row));
+                } else if (sheet.hasValue(field, row)) {
+                    if (dates[field] != null) {
+                        dates[field][i] = sheet.dates[field][row];
+                    } else {
+                        numbers[field][i] = sheet.numbers[field][row];
+                    }
+                    hasValue[field].set(i);
+                }
+            }
+        }
+
+        public ColumnarSheet build() {
+            return new ColumnarSheet(this);
+        }
+
+        /**
+         * @return the index of the new row, with no value yet.
+         */
+        private int newRow(long rowId, long parentId) {
+            if (rowCount == rowIds.length) {
+                int capacity = rowCount * 2;
+                rowIds = Arrays.copyOf(rowIds, capacity);
+                parentIds = Arrays.copyOf(parentIds, capacity);
+                for (int field = 0; field < ColumnMappingPlan.FIELDS_COUNT; field++) {
+                    if (textCodes[field] != null) {
+                        textCodes[field] = Arrays.copyOf(textCodes[field], capacity);
+                    }
+                    if (dates[field] != null) {
+                        dates[field] = Arrays.copyOf(dates[field], capacity);
+                    }
+                    if (numbers[field] != null) {
+                        numbers[field] = Arrays.copyOf(numbers[field], capacity);
+                    }
+                }
+            }
+
+            int i = rowCount++;
+            rowIds[i] = rowId;
+            parentIds[i] = parentId;
+            for (int[] codes : textCodes) {
+                if (codes != null) {
+                    codes[i] = NO_TEXT;
+                }
+            }
+            return i;
+        }
+
+        private int getTextCode(String text) {
+            if (text == null) {
+                return NO_TEXT;
+            }
+            Integer code = codesByText.get(text);
+            if (code == null) {
+                code = texts.size();
+                texts.add(text);
+                codesByText.put(text, code);
+            }
+            return code;
+        }
+    }
+
+    private static Double parseNumber(SmartsheetSheet.SmartsheetRow.SmartsheetCell cell) {
+        if (cell == null || StringUtils.isBlank(cell.value)) {
+            return null;
+        }
+
+        try {
+            return Double.parseDouble(cell.value);
+        } catch (Exception e) {
+            logger.error("Error parsing field value to a number:" + cell.value, e);
+            return null;
+        }
+    }
+
+    private static Double parsePercent(SmartsheetSheet.SmartsheetRow.SmartsheetCell cell) {
+        if (cell == null || StringUtils.isBlank(cell.value) || cell.displayValue == null) {
+            return null;
+        }
+
+        // We check display value because a display value of 25% has a stored  value of 0.25
+        String strValue = cell.displayValue.trim();
+
+        if (strValue.endsWith("%")) {
+            strValue = StringUtils.removeEnd(strValue, "%").trim();
+        }
+
+        try {
+            return Double.parseDouble(strValue);
+        } catch (Exception e) {
+            logger.error("Error parsing field value to a Percentage: " + cell.value, e);
+            return null;
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getRowId(int row) {
+        return rowIds[row];
+    }
+
+    /**
+     * @return the ID of the parent row, or 0 for a top level row.
+     */
+    public long getParentId(int row) {
+        return parentIds[row];
+    }
+
+    /**
+     * @return the index of the parent row (which may be blank), or NO_PARENT for a top level row or if the parent row is not in the sheet.
+     */
+    public int getParentIndex(int row) {
+        return parentIndexes[row];
+    }
+
+    /**
+     * @return true if the row has no value in any of the mapped columns.
+     */
+    public boolean isBlank(int row) {
+        return blankRows.get(row);
+    }
+
+    public boolean isMapped(int field) {
+        return mappingPlan.isMapped(field);
+    }
+
+    /**
+     * @return the text value of a name or contact field, or null if the row has no value for it.
+     */
+    public String getText(int field, int row) {
+        int code = textCodes[field] == null ? NO_TEXT : textCodes[field][row];
+        return code == NO_TEXT ? null : dictionary[code];
+    }
+
+    /**
+     * @return the distinct text values of a name or contact field, without null.
+     */
+    public Set<String> getDistinctTexts(int field) {
+        if (textCodes[field] == null) {
+            return Collections.emptySet();
+        }
+
+        BitSet codes = new BitSet(dictionary.length);
+        for (int code : textCodes[field]) {
+            if (code != NO_TEXT) {
+                codes.set(code);
+            }
+        }
+
+        Set<String> texts = new HashSet<>(codes.cardinality() * 2);
+        codes.stream().forEach(code -> texts.add(dictionary[code]));
+        return texts;
+    }
+
+    public boolean hasValue(int field, int row) {
+        return hasValue[field] != null && hasValue[field].get(row);
+    }
+
+    /**
+     * @return the date in epoch millis; only meaningful if {@link #hasValue(int, int)}.
+     */
+    public long getDate(int field, int row) {
+        return dates[field][row];
+    }
+
+    /**
+     * @return the number value; only meaningful if {@link #hasValue(int, int)}.
+     */
+    public double getNumber(int field, int row) {
+        return numbers[field][row];
+    }
+}
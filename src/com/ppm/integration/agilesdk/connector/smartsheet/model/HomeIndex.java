@@ -0,0 +1,237 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import com.ppm.integration.agilesdk.connector.smartsheet.SmartsheetConstants;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the content of a {@link HomeResponse}, built once per parsed home content.
+ *
+ * Folders and workspaces can be looked up by ID in constant time, and the full path of every sheet and folder is computed once.
+ * The tree is walked iteratively, so deeply nested folders cannot overflow the stack, and paths share their common prefixes (see {@link HomePath}).
+ * The HomeResponse objects are never modified: returned sheets and folders are copies holding their own path,
+ * so the index can safely be shared between threads. Like the parsed home content, copies only have an ID, a name and a path.
+ */
+public class HomeIndex {
+
+    private final HomeResponse home;
+
+    private final Map<String, HomeResponse.Folder> foldersById = new HashMap<>();
+
+    private final Map<String, HomeResponse.Workspace> workspacesById = new HashMap<>();
+
+    private final Map<String, SmartsheetSheet> sheetsById = new HashMap<>();
+
+    private final List<SmartsheetSheet> allSheets;
+
+    private final List<HomeResponse.Folder> allFolders;
+
+    private final List<HomeResponse.Workspace> workspaces;
+
+    // Sheets of each workspace or folder (including sub-folders), with their path relative to that workspace/folder. Computed on first use.
+    private final ConcurrentMap<String, List<SmartsheetSheet>> sheetsByWorkspaceId = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, List<SmartsheetSheet>> sheetsByFolderId = new ConcurrentHashMap<>();
+
+    HomeIndex(HomeResponse home) {
+        this.home = home;
+
+        List<HomeResponse.Workspace> workspacesList = new ArrayList<>();
+        List<HomeResponse.Folder> foldersList = new ArrayList<>();
+        List<SmartsheetSheet> sheetsList = new ArrayList<>();
+
+        HomePath homePath = HomePath.of(SmartsheetConstants.HOME_PATH);
+
+        addSheets(home.sheets, sheetsList, homePath);
+
+        if (home.workspaces != null) {
+            for (HomeResponse.Workspace workspace : home.workspaces) {
+                workspacesList.add(workspace);
+                workspacesById.put(workspace.id, workspace);
+                HomePath workspacePath = HomePath.of("[" + workspace.name + "]/");
+                addSheets(workspace.sheets, sheetsList, workspacePath);
+                addFolders(workspace.folders, foldersList, sheetsList, workspacePath, workspacePath);
+            }
+        }
+
+        // Folders in Home are listed without any path prefix, but their sheets are prefixed with the Home path.
+        addFolders(home.folders, foldersList, sheetsList, HomePath.EMPTY, homePath);
+
+        this.workspaces = Collections.unmodifiableList(workspacesList);
+        this.allFolders = Collections.unmodifiableList(foldersList);
+        this.allSheets = Collections.unmodifiableList(sheetsList);
+
+        for (SmartsheetSheet sheet : sheetsList) {
+            sheetsById.putIfAbsent(sheet.id, sheet);
+        }
+    }
+
+    /**
+     * A folder to visit, along with the paths of its parent as displayed for folders and for sheets.
+     */
+    private static class FolderVisit {
+        final HomeResponse.Folder folder;
+        final HomePath folderParentPath;
+        final HomePath sheetParentPath;
+
+        FolderVisit(HomeResponse.Folder folder, HomePath folderParentPath, HomePath sheetParentPath) {
+            this.folder = folder;
+            this.folderParentPath = folderParentPath;
+            this.sheetParentPath = sheetParentPath;
+        }
+    }
+
+    /**
+     * Adds the folders and all their sub-folders (depth first, each folder before its sub-folders) to foldersList, and their sheets to sheetsList.
+     */
+    private void addFolders(HomeResponse.Folder[] folders, List<HomeResponse.Folder> foldersList, List<SmartsheetSheet> sheetsList, HomePath folderParentPath, HomePath sheetParentPath) {
+        Deque<FolderVisit> toVisit = new ArrayDeque<>();
+        pushFolders(toVisit, folders, folderParentPath, sheetParentPath);
+
+        while (!toVisit.isEmpty()) {
+            FolderVisit visit = toVisit.pop();
+            HomeResponse.Folder folder = visit.folder;
+
+            foldersById.put(folder.id, folder);
+            foldersList.add(copyFolder(folder, visit.folderParentPath));
+
+            HomePath folderPath = visit.folderParentPath.child(folder.name);
+            HomePath sheetPath = visit.sheetParentPath == visit.folderParentPath ? folderPath : visit.sheetParentPath.child(folder.name);
+
+            addSheets(folder.sheets, sheetsList, sheetPath);
+            pushFolders(toVisit, folder.folders, folderPath, sheetPath);
+        }
+    }
+
+    /**
+     * Adds the sheets of the folder and all its sub-folders to sheetsList.
+     */
+    private void addFolderSheets(HomeResponse.Folder rootFolder, List<SmartsheetSheet> sheetsList, HomePath parentPath) {
+        Deque<FolderVisit> toVisit = new ArrayDeque<>();
+        toVisit.push(new FolderVisit(rootFolder, parentPath, parentPath));
+
+        while (!toVisit.isEmpty()) {
+            FolderVisit visit = toVisit.pop();
+            HomePath folderPath = visit.sheetParentPath.child(visit.folder.name);
+
+            addSheets(visit.folder.sheets, sheetsList, folderPath);
+            pushFolders(toVisit, visit.folder.folders, folderPath, folderPath);
+        }
+    }
+
+    /**
+     * Pushes the folders in reverse order, so that they're popped in their original order.
+     */
+    private void pushFolders(Deque<FolderVisit> toVisit, HomeResponse.Folder[] folders, HomePath folderParentPath, HomePath sheetParentPath) {
+        if (folders == null) {
+            return;
+        }
+
+        for (int i = folders.length - 1; i >= 0; i--) {
+            toVisit.push(new FolderVisit(folders[i], folderParentPath, sheetParentPath));
+        }
+    }
+
+    private void addSheets(SmartsheetSheet[] sheets, List<SmartsheetSheet> sheetsList, HomePath path) {
+        if (sheets == null) {
+            return;
+        }
+
+        for (SmartsheetSheet sheet : sheets) {
+            sheetsList.add(copySheet(sheet, path));
+        }
+    }
+
+    /**
+     * Home contents are parsed with sheets & folders IDs and names only (see HomeParser), so only these are copied.
+     */
+    private SmartsheetSheet copySheet(SmartsheetSheet sheet, HomePath path) {
+        SmartsheetSheet copy = new SmartsheetSheet();
+        copy.id = sheet.id;
+        copy.name = sheet.name;
+        copy.path = path;
+        return copy;
+    }
+
+    private HomeResponse.Folder copyFolder(HomeResponse.Folder folder, HomePath parentPath) {
+        HomeResponse.Folder copy = home.new Folder();
+        copy.id = folder.id;
+        copy.name = folder.name;
+        copy.folders = folder.folders;
+        copy.sheets = folder.sheets;
+        copy.parentPath = parentPath;
+        return copy;
+    }
+
+    /**
+     * @return all the sheets, with their full path from Home or from their workspace.
+     */
+    public List<SmartsheetSheet> getAllSheets() {
+        return allSheets;
+    }
+
+    /**
+     * @return all the folders from all workspaces and then from Home, with their parent path.
+     */
+    public List<HomeResponse.Folder> getAllFolders() {
+        return allFolders;
+    }
+
+    public List<HomeResponse.Workspace> getWorkspaces() {
+        return workspaces;
+    }
+
+    /**
+     * @return the sheet with its full path from Home or from its workspace, or null if it's not in the home content.
+     */
+    public SmartsheetSheet getSheet(String sheetId) {
+        return sheetId == null ? null : sheetsById.get(sheetId);
+    }
+
+    public HomeResponse.Folder getFolder(String folderId) {
+        return folderId == null ? null : foldersById.get(folderId);
+    }
+
+    public HomeResponse.Workspace getWorkspace(String workspaceId) {
+        return workspaceId == null ? null : workspacesById.get(workspaceId);
+    }
+
+    /**
+     * @return all the sheets in the workspace and its folders, with their path relative to the workspace; empty list if the workspace doesn't exist.
+     */
+    public List<SmartsheetSheet> getWorkspaceSheets(String workspaceId) {
+        HomeResponse.Workspace workspace = getWorkspace(workspaceId);
+        if (workspace == null) {
+            return Collections.emptyList();
+        }
+
+        return sheetsByWorkspaceId.computeIfAbsent(workspaceId, id -> {
+            List<SmartsheetSheet> sheetsList = new ArrayList<>();
+            addSheets(workspace.sheets, sheetsList, HomePath.EMPTY);
+            if (workspace.folders != null) {
+                for (HomeResponse.Folder folder : workspace.folders) {
+                    addFolderSheets(folder, sheetsList, HomePath.EMPTY);
+                }
+            }
+            return Collections.unmodifiableList(sheetsList);
+        });
+    }
+
+    /**
+     * @return all the sheets in the folder and its sub-folders, with their path starting from that folder; empty list if the folder doesn't exist.
+     */
+    public List<SmartsheetSheet> getFolderSheets(String folderId) {
+        HomeResponse.Folder folder = getFolder(folderId);
+        if (folder == null) {
+            return Collections.emptyList();
+        }
+
+        return sheetsByFolderId.computeIfAbsent(folderId, id -> {
+            List<SmartsheetSheet> sheetsList = new ArrayList<>();
+            addFolderSheets(folder, sheetsList, HomePath.EMPTY);
+            return Collections.unmodifiableList(sheetsList);
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+/**
+ * Path of a workspace or folder in the home tree, such as "[Workspace]/Folder/Sub-folder/".
+ *
+ * A path only holds its last element and a reference to its parent path, so all the folders and sheets of a tree share their
+ * path prefixes instead of each holding a full copy. The String value is only built the first time it's needed, without recursion.
+ */
+public final class HomePath {
+
+    public static final HomePath EMPTY = new HomePath(null, "");
+
+    private final HomePath parent;
+
+    // Last element of the path, including its trailing "/" if any.
+    private final String element;
+
+    private final int length;
+
+    private volatile String value;
+
+    private HomePath(HomePath parent, String element) {
+        this.parent = parent;
+        this.element = element;
+        this.length = (parent == null ? 0 : parent.length) + element.length();
+    }
+
+    public static HomePath of(String path) {
+        return EMPTY.append(path);
+    }
+
+    /**
+     * @return the path of the folder with the passed name in this path, i.e. this path + name + "/".
+     */
+    public HomePath child(String name) {
+        return new HomePath(this, name + "/");
+    }
+
+    private HomePath append(String element) {
+        return new HomePath(this, element);
+    }
+
+    @Override
+    public String toString() {
+        String result = value;
+        if (result == null) {
+            char[] chars = new char[length];
+            int end = length;
+            for (HomePath path = this; path != null; path = path.parent) {
+                end -= path.element.length();
+                path.element.getChars(0, path.element.length(), chars, end);
+            }
+            result = new String(chars);
+            value = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,137 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+/**
+ * Map of primitive long keys (Smartsheet IDs) to non-negative int values (indexes, positions...), without boxing any key or value.
+ *
+ * Uses open addressing with linear probing. Not thread-safe.
+ */
+public class LongIntHashMap {
+
+    /**
+     * Returned by {@link #get(long)}, {@link #put(long, int)} and {@link #remove(long)} when there's no value for the key.
+     */
+    public static final int NO_VALUE = -1;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private boolean[] used;
+
+    private int size;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        return used[indexOf(key)];
+    }
+
+    public int get(long key) {
+        int index = indexOf(key);
+        return used[index] ? values[index] : NO_VALUE;
+    }
+
+    /**
+     * @return the previous value of the key, or NO_VALUE if it had none.
+     */
+    public int put(long key, int value) {
+        int index = indexOf(key);
+
+        if (used[index]) {
+            int previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        used[index] = true;
+
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+
+        return NO_VALUE;
+    }
+
+    /**
+     * @return the removed value, or NO_VALUE if the key had none.
+     */
+    public int remove(long key) {
+        int index = indexOf(key);
+
+        if (!used[index]) {
+            return NO_VALUE;
+        }
+
+        int removed = values[index];
+        used[index] = false;
+        size--;
+
+        // Shift back the following entries of the probe sequence, so that they can still be found.
+        int mask = keys.length - 1;
+        int free = index;
+        for (int next = (index + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                used[free] = true;
+                used[next] = false;
+                free = next;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * @return the slot of the key, or the free slot where it would be inserted.
+     */
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (used[index] && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -1,58 +1,82 @@
 package com.ppm.integration.agilesdk.connector.smartsheet.model;
 
-import com.kintana.core.logging.LogManager;
-import com.kintana.core.logging.Logger;
-import com.ppm.integration.agilesdk.ValueSet;
-import com.ppm.integration.agilesdk.connector.smartsheet.SmartsheetConstants;
 import com.ppm.integration.agilesdk.pm.ExternalTask;
 import com.ppm.integration.agilesdk.pm.ExternalTaskActuals;
-import com.ppm.integration.agilesdk.provider.UserProvider;
-import com.sun.jimi.core.util.P;
-import org.apache.commons.lang.StringUtils;
 
 import java.util.*;
 
 /**
- * Exposes a Smartsheet Page object as an External Task, based on the passed config.
+ * Exposes a row of a Smartsheet sheet as an External Task, based on the columns mapping of the sheet.
+ *
+ * All the values of the task are computed once when it's built, as PPM calls the getters many times per task.
+ * Only values that are not mapped to any column (or without value) are left to the default ExternalTask implementation.
+ * Dates are kept as epoch millis and a new Date is returned on each call, so that callers can't change the values of the task.
  */
 public class RowExternalTask extends ExternalTask {
 
-    private final static Logger logger = LogManager.getLogger(RowExternalTask.class);
-
-    private SmartsheetSheet.SmartsheetRow row;
-    private UserProvider userProvider;
-    private ValueSet config;
-    private Map<String, SmartsheetSheet.SmartsheetRow.SmartsheetCell> cellsByColumnId = new HashMap<>();
+    private final int rowIndex;
+    private final long rowId;
+    private final long parentRowId;
+    private final String id;
+    private final String name; // null if not mapped.
+    // Only changed after the task is built when rolling up the values of summary tasks, before the tasks are returned to PPM.
+    private long scheduledStart = SmartsheetDateParser.NO_DATE; // Epoch millis, NO_DATE if not mapped or without value.
+    private long scheduledFinish = SmartsheetDateParser.NO_DATE; // Epoch millis, NO_DATE if not mapped or without value.
+    private TaskStatus status;
+    private List<ExternalTaskActuals> actuals; // null if it depends on default dates.
     private double percentComplete = 0.0d;
     private double actualEffort = 0.0d;
     private double scheduledEffort = 0.0d;
     private double estimatedRemainingEffort = 0.0d;
-    private List<Long> resourcesIds = new ArrayList<>();
-    private List<ExternalTask> children = new ArrayList<>();
+    private List<Long> resourcesIds = Collections.emptyList();
+    private List<ExternalTask> children = Collections.emptyList();
 
     @Override
     public List<ExternalTask> getChildren() {
         return children;
     }
 
-    public void addChild(ExternalTask child) {
-        children.add(child);
+    /**
+     * Only called once, when building the tasks hierarchy.
+     */
+    void setChildren(List<ExternalTask> children) {
+        this.children = Collections.unmodifiableList(children);
     }
 
-    public RowExternalTask(SmartsheetSheet.SmartsheetRow row, ValueSet config, UserProvider userProvider) {
-        this.row = row;
-        this.config = config;
-        this.userProvider = userProvider;
-        Arrays.stream(this.row.cells).forEach(cell -> cellsByColumnId.put(cell.columnId, cell));
+    /**
+     * @param rowIndex index of the row of this task in the sheet.
+     * @param resourcesIdsByContacts PPM user IDs of each of the values of the resources column, as resolved by the PpmUserResolver.
+     */
+    public RowExternalTask(ColumnarSheet sheet, int rowIndex, Map<String, List<Long>> resourcesIdsByContacts) {
+        this.rowIndex = rowIndex;
+        this.rowId = sheet.getRowId(rowIndex);
+        this.parentRowId = sheet.getParentId(rowIndex);
+        this.id = String.valueOf(rowId);
+
+        if (sheet.isMapped(ColumnMappingPlan.NAME)) {
+            String nameValue = getTextField(sheet, ColumnMappingPlan.NAME);
+            // It's common to have one empty line at the end of table in Smartsheet Database
+            name = nameValue == null ? "?" : nameValue;
+        } else {
+            name = null;
+        }
+
+        Date start = sheet.isMapped(ColumnMappingPlan.START_DATE) ? getDateField(sheet, ColumnMappingPlan.START_DATE) : null;
+        if (start != null) {
+            scheduledStart = adjustStartDateTime(start).getTime();
+        }
 
-        String resourceField = config.get(SmartsheetConstants.KEY_TMF_TASK_RESOURCES);
-        if (resourceField != null) {
-            resourcesIds = getPeoplesField(resourceField);
+        Date finish = sheet.isMapped(ColumnMappingPlan.FINISH_DATE) ? getDateField(sheet, ColumnMappingPlan.FINISH_DATE) : null;
+        if (finish != null) {
+            scheduledFinish = adjustFinishDateTime(finish).getTime();
         }
 
-        String actualEffortField = config.get(SmartsheetConstants.KEY_TMF_TASK_ACTUAL_EFFORT);
-        if (actualEffortField != null) {
-            Double actualEffortValue = getNumberField(actualEffortField);
+        if (sheet.isMapped(ColumnMappingPlan.RESOURCES)) {
+            resourcesIds = getPeoplesField(sheet, ColumnMappingPlan.RESOURCES, resourcesIdsByContacts);
+        }
+
+        if (sheet.isMapped(ColumnMappingPlan.ACTUAL_EFFORT)) {
+            Double actualEffortValue = getNumberField(sheet, ColumnMappingPlan.ACTUAL_EFFORT);
             if (actualEffortValue != null) {
                 actualEffort = actualEffortValue.doubleValue();
                 if (actualEffort < 0d) {
@@ -61,9 +85,8 @@ public class RowExternalTask extends ExternalTask {
             }
         }
 
-        String scheduledEffortField = config.get(SmartsheetConstants.KEY_TMF_TASK_SCHEDULED_EFFORT);
-        if (scheduledEffortField != null) {
-            Double scheduledEffortValue = getNumberField(scheduledEffortField);
+        if (sheet.isMapped(ColumnMappingPlan.SCHEDULED_EFFORT)) {
+            Double scheduledEffortValue = getNumberField(sheet, ColumnMappingPlan.SCHEDULED_EFFORT);
             if (scheduledEffortValue != null) {
                 scheduledEffort = scheduledEffortValue.doubleValue();
                 if (scheduledEffort < 0d) {
@@ -72,9 +95,8 @@ public class RowExternalTask extends ExternalTask {
             }
         }
 
-        String ereField = config.get(SmartsheetConstants.KEY_TMF_TASK_ERE);
-        if (ereField != null) {
-            Double ereValue = getNumberField(ereField);
+        if (sheet.isMapped(ColumnMappingPlan.ERE)) {
+            Double ereValue = getNumberField(sheet, ColumnMappingPlan.ERE);
             if (ereValue != null) {
                 estimatedRemainingEffort = ereValue.doubleValue();
                 if (estimatedRemainingEffort < 0d) {
@@ -83,9 +105,8 @@ public class RowExternalTask extends ExternalTask {
             }
         }
 
-        String percentCompleteField = config.get(SmartsheetConstants.KEY_TMF_TASK_PERCENT_COMPLETE);
-        if (percentCompleteField != null) {
-            Double percentValue = getPercentField(percentCompleteField);
+        if (sheet.isMapped(ColumnMappingPlan.PERCENT_COMPLETE)) {
+            Double percentValue = getPercentField(sheet, ColumnMappingPlan.PERCENT_COMPLETE);
             if (percentValue != null) {
                 percentComplete = percentValue; // Percent value should be written in 0-100 value in smartsheet.
 
@@ -100,9 +121,61 @@ public class RowExternalTask extends ExternalTask {
 
         computeMissingEffortFields();
 
+        status = computeStatus();
+
+        // Actuals hold the scheduled dates, so they can only be computed now if they don't rely on default dates.
+        actuals = scheduledStart != SmartsheetDateParser.NO_DATE && scheduledFinish != SmartsheetDateParser.NO_DATE ? computeActuals() : null;
     }
 
 
+    /**
+     * Replaces the efforts of this summary task by the sum of the efforts of its children, and its scheduled dates by the range of their dates.
+     * The children must have been rolled up first if they're summary tasks themselves. Children without dates don't change the range,
+     * and the task keeps its own dates if none of its children has any.
+     */
+    void rollUpChildren() {
+        if (children.isEmpty()) {
+            return;
+        }
+
+        double childrenScheduledEffort = 0d;
+        double childrenActualEffort = 0d;
+        double childrenEstimatedRemainingEffort = 0d;
+        long childrenStart = SmartsheetDateParser.NO_DATE;
+        long childrenFinish = SmartsheetDateParser.NO_DATE;
+
+        for (ExternalTask child : children) {
+            RowExternalTask childTask = (RowExternalTask)child;
+            childrenScheduledEffort += childTask.scheduledEffort;
+            childrenActualEffort += childTask.actualEffort;
+            childrenEstimatedRemainingEffort += childTask.estimatedRemainingEffort;
+
+            if (childTask.scheduledStart != SmartsheetDateParser.NO_DATE && (childrenStart == SmartsheetDateParser.NO_DATE || childTask.scheduledStart < childrenStart)) {
+                childrenStart = childTask.scheduledStart;
+            }
+            if (childTask.scheduledFinish != SmartsheetDateParser.NO_DATE && (childrenFinish == SmartsheetDateParser.NO_DATE || childTask.scheduledFinish > childrenFinish)) {
+                childrenFinish = childTask.scheduledFinish;
+            }
+        }
+
+        scheduledEffort = childrenScheduledEffort;
+        actualEffort = childrenActualEffort;
+        estimatedRemainingEffort = childrenEstimatedRemainingEffort;
+        // Percent complete is recomputed from the efforts.
+        percentComplete = 0d;
+        computeMissingEffortFields();
+
+        if (childrenStart != SmartsheetDateParser.NO_DATE) {
+            scheduledStart = childrenStart;
+        }
+        if (childrenFinish != SmartsheetDateParser.NO_DATE) {
+            scheduledFinish = childrenFinish;
+        }
+
+        status = computeStatus();
+        actuals = scheduledStart != SmartsheetDateParser.NO_DATE && scheduledFinish != SmartsheetDateParser.NO_DATE ? computeActuals() : null;
+    }
+
     /**
      * Exactly 2 from the above fields should be mapped/set - and PPM will compute the other fields based on the formulas:
      * SE = AE + ERE
@@ -174,6 +247,10 @@ public class RowExternalTask extends ExternalTask {
 
     @Override
     public TaskStatus getStatus() {
+        return status;
+    }
+
+    private TaskStatus computeStatus() {
         // We compute task Status based on the percent complete value.
         if (percentComplete <= 0d) {
             return TaskStatus.READY;
@@ -186,70 +263,51 @@ public class RowExternalTask extends ExternalTask {
 
     @Override
     public String getId() {
-        return row.id;
+        return id;
     }
 
     @Override
     public String getName() {
-        String fieldId = config.get(SmartsheetConstants.KEY_TMF_TASK_NAME);
-        if (fieldId != null) {
-            String name = getTextField(fieldId);
-            if (name == null) {
-                // It's common to have one empty line at the end of table in Smartsheet Database
-                name = "?";
-            }
-            return name;
-        } else {
-            return super.getName();
-        }
+        return name == null ? super.getName() : name;
     }
 
     @Override
     public Date getScheduledStart() {
-        String fieldId = config.get(SmartsheetConstants.KEY_TMF_TASK_START_DATE);
-        if (fieldId != null) {
-            Date date = getDateField(fieldId);
-            if (date != null) {
-                return adjustStartDateTime(date);
-            }
-        }
-        return super.getScheduledStart();
-
+        return scheduledStart == SmartsheetDateParser.NO_DATE ? super.getScheduledStart() : new Date(scheduledStart);
     }
 
     @Override
     public Date getScheduledFinish() {
-        String fieldId = config.get(SmartsheetConstants.KEY_TMF_TASK_FINISH_DATE);
-        if (fieldId != null) {
-            Date date = getDateField(fieldId);
-            if (date != null) {
-                return adjustFinishDateTime(date);
-            }
-        }
-        return super.getScheduledFinish();
+        return scheduledFinish == SmartsheetDateParser.NO_DATE ? super.getScheduledFinish() : new Date(scheduledFinish);
     }
 
     @Override
     public List<ExternalTaskActuals> getActuals() {
+        return actuals == null ? computeActuals() : actuals;
+    }
 
-        List<ExternalTaskActuals> actuals = new ArrayList<ExternalTaskActuals>();
+    private List<ExternalTaskActuals> computeActuals() {
 
+        List<ExternalTaskActuals> actuals = new ArrayList<ExternalTaskActuals>(Math.max(1, resourcesIds.size()));
 
         final double numResources = resourcesIds.size();
 
+        final Date start = getScheduledStart();
+        final Date finish = getScheduledFinish();
+
         if (resourcesIds.isEmpty()) {
             // All is unassigned effort
-            ExternalTaskActuals unassignedActuals = new SmartsheetExternalTaskActuals(scheduledEffort, estimatedRemainingEffort, actualEffort, percentComplete, getScheduledStart(), getScheduledFinish(), null);
+            ExternalTaskActuals unassignedActuals = new SmartsheetExternalTaskActuals(scheduledEffort, estimatedRemainingEffort, actualEffort, percentComplete, start, finish, null);
             actuals.add(unassignedActuals);
         } else {
             // One Actual entry per resource.
             for (final Long resourceId : resourcesIds) {
-                ExternalTaskActuals resourceActuals = new SmartsheetExternalTaskActuals(scheduledEffort/ numResources, estimatedRemainingEffort/ numResources,actualEffort / numResources, percentComplete, getScheduledStart(), getScheduledFinish(), resourceId);
+                ExternalTaskActuals resourceActuals = new SmartsheetExternalTaskActuals(scheduledEffort/ numResources, estimatedRemainingEffort/ numResources,actualEffort / numResources, percentComplete, start, finish, resourceId);
                 actuals.add(resourceActuals);
             }
         }
 
-        return actuals;
+        return Collections.unmodifiableList(actuals);
     }
 
     /**
@@ -264,76 +322,43 @@ public class RowExternalTask extends ExternalTask {
         }
     }
 
-    private String getTextField(String fieldId) {
-        SmartsheetSheet.SmartsheetRow.SmartsheetCell prop = cellsByColumnId.get(fieldId);
-
-        if (prop == null) {
-            return null;
-        }
-
-        return prop.value;
+    private String getTextField(ColumnarSheet sheet, int field) {
+        return sheet.getText(field, rowIndex);
     }
 
-    private Date getDateField(String fieldId) {
-
-        SmartsheetSheet.SmartsheetRow.SmartsheetCell prop = cellsByColumnId.get(fieldId);
-
-        if (prop == null) {
-            return null;
-        }
-
-        return prop.getValueAsDate();
+    private Date getDateField(ColumnarSheet sheet, int field) {
+        return sheet.hasValue(field, rowIndex) ? new Date(sheet.getDate(field, rowIndex)) : null;
     }
 
-    private List<Long> getPeoplesField(String fieldId) {
-        SmartsheetSheet.SmartsheetRow.SmartsheetCell prop = cellsByColumnId.get(fieldId);
-
-        if (prop == null) {
-            return null;
-        }
-
-        return prop.getPeoplesValue(userProvider);
+    private List<Long> getPeoplesField(ColumnarSheet sheet, int field, Map<String, List<Long>> resourcesIdsByContacts) {
+        String contacts = sheet.getText(field, rowIndex);
+        List<Long> resourcesIds = contacts == null ? null : resourcesIdsByContacts.get(contacts);
+        return resourcesIds == null ? Collections.emptyList() : resourcesIds;
     }
 
-    private Double getNumberField(String fieldId) {
-        SmartsheetSheet.SmartsheetRow.SmartsheetCell prop = cellsByColumnId.get(fieldId);
-
-        if (prop == null || prop.value == null || StringUtils.isBlank(prop.value)) {
-            return null;
-        }
-
-        try {
-            return Double.parseDouble(prop.value);
-        } catch (Exception e) {
-            logger.error("Error parsing field value to a number:" + prop.value, e);
-            return null;
-        }
+    private Double getNumberField(ColumnarSheet sheet, int field) {
+        return sheet.hasValue(field, rowIndex) ? sheet.getNumber(field, rowIndex) : null;
     }
 
-    private Double getPercentField(String fieldId) {
-        SmartsheetSheet.SmartsheetRow.SmartsheetCell prop = cellsByColumnId.get(fieldId);
-
-        if (prop == null || prop.value == null || StringUtils.isBlank(prop.value)) {
-            return null;
-        }
-
-        // We check display value because a display value of 25% has a stored  value of 0.25
-        String strValue = prop.displayValue.trim();
+    private Double getPercentField(ColumnarSheet sheet, int field) {
+        return getNumberField(sheet, field);
+    }
 
-        if (strValue.endsWith("%")) {
-            strValue = StringUtils.removeEnd(strValue, "%").trim();
-        }
+    /**
+     * @return the index of the row of this task in the sheet.
+     */
+    public int getRowIndex() {
+        return rowIndex;
+    }
 
-        try {
-            double value = Double.parseDouble(strValue);
-            return value;
-        } catch (Exception e) {
-            logger.error("Error parsing field value to a Percentage: " + prop.value, e);
-            return null;
-        }
+    public long getRowId() {
+        return rowId;
     }
 
-    public String getParentId() {
-        return row.parentId;
+    /**
+     * @return the ID of the parent row, or 0 for a top level row.
+     */
+    public long getParentRowId() {
+        return parentRowId;
     }
 }
@@ -0,0 +1,310 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import com.kintana.core.logging.LogManager;
+import com.kintana.core.logging.Logger;
+import com.ppm.integration.agilesdk.pm.ExternalTask;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts all the rows of a sheet into tasks, in the rows order, builds the tasks hierarchy, and can roll up the values of summary tasks.
+ *
+ * Big sheets are converted in parallel: rows are split in ranges that are converted by the threads of a fork-join pool dedicated to this conversion,
+ * so that a sync doesn't use all the cores of the PPM server. Tasks only read the columnar sheet and the resolved resources, which are not modified anymore at this point.
+ * Summary tasks of big sheets are also rolled up in parallel in the same pool, each subtree being independent from its siblings.
+ *
+ * Conversion can be tuned with JVM system properties:
+ * <ul>
+ *     <li>smartsheet.taskConversion.parallelism: max number of threads converting rows at the same time for all syncs (default: number of cores, up to 8). 1 to disable parallel conversion.</li>
+ *     <li>smartsheet.taskConversion.parallelMinRows: min number of rows of a sheet for it to be converted or rolled up in parallel (default 1000)</li>
+ * </ul>
+ */
+public class RowExternalTasks {
+
+    private final static Logger logger = LogManager.getLogger(RowExternalTasks.class);
+
+    private static final int PARALLELISM = Math.max(1, Integer.getInteger("smartsheet.taskConversion.parallelism", Math.min(8, Runtime.getRuntime().availableProcessors())));
+
+    private static final int PARALLEL_MIN_ROWS = Integer.getInteger("smartsheet.taskConversion.parallelMinRows", 1000);
+
+    // Ranges of rows smaller than this are not split any further.
+    private static final int MIN_ROWS_PER_SPLIT = 256;
+
+    // Subtrees deeper than this are rolled up sequentially, as each forked level adds frames to the stack of the pool threads.
+    private static final int MAX_PARALLEL_ROLL_UP_DEPTH = 64;
+
+    private static final ForkJoinPool conversionPool = PARALLELISM > 1 ? new ForkJoinPool(PARALLELISM, pool -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("smartsheet-task-conversion-" + t.getPoolIndex());
+        t.setDaemon(true);
+        return t;
+    }, null, false) : null;
+
+    /**
+     * Only the mapped columns are retrieved, so a row is blank if it has no value in the mapped columns, even if it has values in other columns.
+     * Blank rows with non-blank sub-rows still get a (nameless) task, so that these sub-rows keep their place in the hierarchy;
+     * other blank rows don't get any task.
+     *
+     * @param resourcesIdsByContacts PPM user IDs of each of the values of the resources column; must not be modified anymore.
+     * @return one task per row of the sheet, in the same order as the rows; null for rows without task.
+     */
+    public static List<RowExternalTask> create(ColumnarSheet sheet, Map<String, List<Long>> resourcesIdsByContacts) {
+        RowExternalTask[] tasks = new RowExternalTask[sheet.getRowCount()];
+
+        ConvertRows conversion = new ConvertRows(sheet, getRowsWithTask(sheet), resourcesIdsByContacts, tasks, 0, tasks.length);
+
+        if (conversionPool == null || tasks.length < PARALLEL_MIN_ROWS) {
+            conversion.convert();
+        } else {
+            // Tasks created by the pool threads are visible here once invoke returns.
+            conversionPool.invoke(conversion);
+        }
+
+        return Arrays.asList(tasks);
+    }
+
+    /**
+     * @return the non-blank rows, and the blank rows that are ancestors of a non-blank row.
+     */
+    private static BitSet getRowsWithTask(ColumnarSheet sheet) {
+        int rowCount = sheet.getRowCount();
+        BitSet rowsWithTask = new BitSet(rowCount);
+
+        for (int i = 0; i < rowCount; i++) {
+            if (sheet.isBlank(i)) {
+                continue;
+            }
+            rowsWithTask.set(i);
+
+            // Blank ancestors above the first non-blank one are handled with that ancestor. Stops on cycles as well.
+            for (int parent = sheet.getParentIndex(i); parent != ColumnarSheet.NO_PARENT && sheet.isBlank(parent) && !rowsWithTask.get(parent); parent = sheet.getParentIndex(parent)) {
+                rowsWithTask.set(parent);
+            }
+        }
+
+        return rowsWithTask;
+    }
+
+    /**
+     * Builds the tasks hierarchy in a single pass over the tasks, whatever the order of parent & child rows.
+     * Rows whose parent has no task or is not in the sheet are top level tasks. Tasks can't be their own ancestors: if parent rows form a cycle,
+     * the cycle is broken by making one of its tasks a top level task.
+     *
+     * @param tasks one task per row of the sheet, in the same order as the rows, null for rows without task.
+     * @return the top level tasks. The returned list and the children of the tasks are unmodifiable.
+     */
+    public static List<ExternalTask> buildHierarchy(ColumnarSheet sheet, List<RowExternalTask> tasks) {
+        int taskCount = tasks.size();
+
+        // Tasks without children keep an empty list, so only create children lists when needed.
+        List<List<ExternalTask>> childrenByTask = new ArrayList<>(Collections.nCopies(taskCount, (List<ExternalTask>)null));
+        List<ExternalTask> rootTasks = new ArrayList<>();
+
+        for (int i = 0; i < taskCount; i++) {
+            if (tasks.get(i) == null) {
+                continue;
+            }
+            int parentIndex = getParentTaskIndex(sheet, tasks, i);
+            if (parentIndex == ColumnarSheet.NO_PARENT) {
+                rootTasks.add(tasks.get(i));
+            } else {
+                List<ExternalTask> children = childrenByTask.get(parentIndex);
+                if (children == null) {
+                    children = new ArrayList<>();
+                    childrenByTask.set(parentIndex, children);
+                }
+                children.add(tasks.get(i));
+            }
+        }
+
+        breakCycles(sheet, tasks, childrenByTask, rootTasks);
+
+        for (int i = 0; i < taskCount; i++) {
+            if (childrenByTask.get(i) != null) {
+                tasks.get(i).setChildren(childrenByTask.get(i));
+            }
+        }
+
+        return Collections.unmodifiableList(rootTasks);
+    }
+
+    /**
+     * @return the index of the parent row if it has a task, NO_PARENT otherwise.
+     */
+    private static int getParentTaskIndex(ColumnarSheet sheet, List<RowExternalTask> tasks, int index) {
+        int parentIndex = sheet.getParentIndex(index);
+        return parentIndex == ColumnarSheet.NO_PARENT || tasks.get(parentIndex) == null ? ColumnarSheet.NO_PARENT : parentIndex;
+    }
+
+    /**
+     * Tasks that can't be reached from top level tasks are in a cycle, or descend from a task in a cycle.
+     */
+    private static void breakCycles(ColumnarSheet sheet, List<RowExternalTask> tasks, List<List<ExternalTask>> childrenByTask, List<ExternalTask> rootTasks) {
+        int taskCount = tasks.size();
+        BitSet reached = new BitSet(taskCount);
+
+        for (int i = 0; i < taskCount; i++) {
+            if (tasks.get(i) == null) {
+                // No task to reach.
+                reached.set(i);
+            } else if (getParentTaskIndex(sheet, tasks, i) == ColumnarSheet.NO_PARENT) {
+                markReached(i, sheet, childrenByTask, reached);
+            }
+        }
+
+        for (int i = reached.nextClearBit(0); i < taskCount; i = reached.nextClearBit(i + 1)) {
+            // Go up the parents until we're back on a task already met: that task is in the cycle.
+            BitSet ancestors = new BitSet();
+            int cycleTask = i;
+            while (!ancestors.get(cycleTask)) {
+                ancestors.set(cycleTask);
+                cycleTask = sheet.getParentIndex(cycleTask);
+            }
+
+            logger.warn("Row " + sheet.getRowId(cycleTask) + " of the sheet is its own ancestor, it will be imported as a top level task.");
+
+            childrenByTask.get(sheet.getParentIndex(cycleTask)).remove(tasks.get(cycleTask));
+            rootTasks.add(tasks.get(cycleTask));
+            markReached(cycleTask, sheet, childrenByTask, reached);
+        }
+    }
+
+    private static void markReached(int rootIndex, ColumnarSheet sheet, List<List<ExternalTask>> childrenByTask, BitSet reached) {
+        Deque<Integer> toVisit = new ArrayDeque<>();
+        toVisit.push(rootIndex);
+
+        while (!toVisit.isEmpty()) {
+            int index = toVisit.pop();
+            reached.set(index);
+            List<ExternalTask> children = childrenByTask.get(index);
+            if (children != null) {
+                for (ExternalTask child : children) {
+                    toVisit.push(((RowExternalTask)child).getRowIndex());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rolls up efforts & scheduled dates bottom-up through the tasks tree, so that each summary task gets the totals of its sub-tasks.
+     * Must be called on a hierarchy built by {@link #buildHierarchy(ColumnarSheet, List)}, before it's returned to PPM.
+     *
+     * @param taskCount total number of tasks in the tree.
+     */
+    public static void rollUpSummaryTasks(List<ExternalTask> rootTasks, int taskCount) {
+        RollUpSubtrees rollUp = new RollUpSubtrees(rootTasks, null, 0);
+
+        if (conversionPool == null || taskCount < PARALLEL_MIN_ROWS) {
+            rollUp.rollUp();
+        } else {
+            // Values changed by the pool threads are visible here once invoke returns.
+            conversionPool.invoke(rollUp);
+        }
+    }
+
+    /**
+     * Rolls up the subtrees of the summary tasks among a list of sibling tasks, then their parent once they're all done.
+     */
+    private static class RollUpSubtrees extends RecursiveAction {
+
+        private final List<ExternalTask> tasks;
+        private final RowExternalTask parent; // null for top level tasks.
+        private final int depth;
+
+        private RollUpSubtrees(List<ExternalTask> tasks, RowExternalTask parent, int depth) {
+            this.tasks = tasks;
+            this.parent = parent;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (depth >= MAX_PARALLEL_ROLL_UP_DEPTH) {
+                rollUp();
+                return;
+            }
+
+            List<RollUpSubtrees> subtrees = new ArrayList<>();
+            for (ExternalTask task : tasks) {
+                if (!task.getChildren().isEmpty()) {
+                    subtrees.add(new RollUpSubtrees(task.getChildren(), (RowExternalTask)task, depth + 1));
+                }
+            }
+
+            invokeAll(subtrees);
+
+            if (parent != null) {
+                parent.rollUpChildren();
+            }
+        }
+
+        /**
+         * Walks the subtrees with an explicit stack, so that deep trees cannot overflow the stack.
+         */
+        private void rollUp() {
+            // Summary tasks in pre-order, i.e. each one before all its sub-tasks: rolling them up in reverse order rolls up sub-tasks first.
+            List<RowExternalTask> summaryTasks = new ArrayList<>();
+            Deque<ExternalTask> toVisit = new ArrayDeque<>(tasks);
+
+            while (!toVisit.isEmpty()) {
+                ExternalTask task = toVisit.pop();
+                if (!task.getChildren().isEmpty()) {
+                    summaryTasks.add((RowExternalTask)task);
+                    for (ExternalTask child : task.getChildren()) {
+                        toVisit.push(child);
+                    }
+                }
+            }
+
+            for (int i = summaryTasks.size() - 1; i >= 0; i--) {
+                summaryTasks.get(i).rollUpChildren();
+            }
+
+            if (parent != null) {
+                parent.rollUpChildren();
+            }
+        }
+    }
+
+    private static class ConvertRows extends RecursiveAction {
+
+        private final ColumnarSheet sheet;
+        private final BitSet rowsWithTask;
+        private final Map<String, List<Long>> resourcesIdsByContacts;
+        private final RowExternalTask[] tasks;
+        private final int from;
+        private final int to;
+
+        private ConvertRows(ColumnarSheet sheet, BitSet rowsWithTask, Map<String, List<Long>> resourcesIdsByContacts, RowExternalTask[] tasks, int from, int to) {
+            this.sheet = sheet;
+            this.rowsWithTask = rowsWithTask;
+            this.resourcesIdsByContacts = resourcesIdsByContacts;
+            this.tasks = tasks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= MIN_ROWS_PER_SPLIT) {
+                convert();
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new ConvertRows(sheet, rowsWithTask, resourcesIdsByContacts, tasks, from, middle),
+                    new ConvertRows(sheet, rowsWithTask, resourcesIdsByContacts, tasks, middle, to));
+        }
+
+        private void convert() {
+            for (int rowIndex = from; rowIndex < to; rowIndex++) {
+                if (rowsWithTask.get(rowIndex)) {
+                    tasks[rowIndex] = new RowExternalTask(sheet, rowIndex, resourcesIdsByContacts);
+                }
+            }
+        }
+    }
+}
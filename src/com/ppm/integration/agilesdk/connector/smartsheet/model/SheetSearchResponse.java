@@ -1,7 +1,19 @@
 package com.ppm.integration.agilesdk.connector.smartsheet.model;
 
+/**
+ * Response of Smartsheet search API (/search), which returns the objects matching the query, whatever their type.
+ */
 public class SheetSearchResponse {
 
+    public static final String SHEET_OBJECT_TYPE = "sheet";
+
     public Integer totalCount;
-    public SmartsheetSheet[] data;
+    public SearchResult[] results;
+
+    public static class SearchResult {
+        public String objectType;
+        public String objectId;
+        public String text;
+        public String parentObjectName;
+    }
 }
@@ -0,0 +1,112 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import com.kintana.core.logging.LogManager;
+import com.kintana.core.logging.Logger;
+import org.apache.commons.lang.StringUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the dates values of Smartsheet cells. The format is picked from the shape of the value:
+ * <ul>
+ *     <li>yyyy-MM-dd (DATE columns): midnight in the server time zone</li>
+ *     <li>yyyy-MM-ddTHH:mm:ss (ABSTRACT_DATETIME columns), without any time zone info: in the server time zone</li>
+ *     <li>yyyy-MM-ddTHH:mm:ss followed by an offset or Z (DATETIME columns)</li>
+ * </ul>
+ *
+ * The java.time formatters are immutable, so the static methods can be used concurrently.
+ * An instance memoizes the values it has parsed, as schedules keep repeating the same dates; it's meant to parse the cells of one sheet in a single thread.
+ */
+public class SmartsheetDateParser {
+
+    private final static Logger logger = LogManager.getLogger(SmartsheetDateParser.class);
+
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final int MAX_MEMOIZED_VALUES = 10000;
+
+    private final static DateTimeFormatter offsetDateTimeFormatter = new DateTimeFormatterBuilder()
+            // date/time
+            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            // offset (hh:mm - "+00:00" when it's zero)
+            .optionalStart().appendOffset("+HH:MM", "+00:00").optionalEnd()
+            // offset (hhmm - "+0000" when it's zero)
+            .optionalStart().appendOffset("+HHMM", "+0000").optionalEnd()
+            // offset (hh - "Z" when it's zero)
+            .optionalStart().appendOffset("+HH", "Z").optionalEnd()
+            // create formatter
+            .toFormatter();
+
+    private final Map<String, Long> epochMillisByValue = new HashMap<>();
+
+    /**
+     * @return the date in epoch millis, or NO_DATE if the value is blank or not a date.
+     */
+    public long parseEpochMillis(String dateStr) {
+        if (StringUtils.isBlank(dateStr)) {
+            return NO_DATE;
+        }
+
+        Long epochMillis = epochMillisByValue.get(dateStr);
+        if (epochMillis == null) {
+            epochMillis = toEpochMillis(dateStr);
+            if (epochMillisByValue.size() < MAX_MEMOIZED_VALUES) {
+                epochMillisByValue.put(dateStr, epochMillis);
+            }
+        }
+
+        return epochMillis;
+    }
+
+    /**
+     * @return the date, or null if the value is blank or not a date.
+     */
+    public static Date parse(String dateStr) {
+        if (StringUtils.isBlank(dateStr)) {
+            return null;
+        }
+
+        long epochMillis = toEpochMillis(dateStr);
+        return epochMillis == NO_DATE ? null : new Date(epochMillis);
+    }
+
+    private static long toEpochMillis(String dateStr) {
+        try {
+            int timeIndex = dateStr.indexOf('T');
+
+            if (timeIndex < 0) {
+                // Format yyyy-MM-dd
+                return LocalDate.parse(dateStr, DateTimeFormatter.ISO_LOCAL_DATE).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+
+            if (hasOffset(dateStr, timeIndex)) {
+                return OffsetDateTime.parse(dateStr, offsetDateTimeFormatter).toInstant().toEpochMilli();
+            }
+
+            // ABSTRACT_DATETIME field types have format YYYY-MM-ddTHH:mm:ss without any timezone info.
+            return LocalDateTime.parse(dateStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        } catch (Exception e) {
+            logger.error("Failed to parse Date string " + dateStr + " , ignoring date.", e);
+            return NO_DATE;
+        }
+    }
+
+    private static boolean hasOffset(String dateStr, int timeIndex) {
+        for (int i = timeIndex + 1; i < dateStr.length(); i++) {
+            char c = dateStr.charAt(i);
+            if (c == 'Z' || c == '+' || c == '-') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -6,16 +6,17 @@ import java.util.Date;
 
 /**
  * Fills all the gaps of actuals by automatically computing everything.
+ * Immutable: dates are kept as epoch millis, and a new Date is returned on each call.
  */
 public class SmartsheetExternalTaskActuals extends ExternalTaskActuals {
 
-    private double scheduledEffort;
-    private double estimatedRemainingEffort;
-    private double actualEffort;
-    private double percentComplete;
-    private long resourceId;
-    private Date scheduledStart;
-    private Date scheduledFinish;
+    private final double scheduledEffort;
+    private final double estimatedRemainingEffort;
+    private final double actualEffort;
+    private final double percentComplete;
+    private final long resourceId;
+    private final Long scheduledStart; // Epoch millis, null if no date.
+    private final Long scheduledFinish; // Epoch millis, null if no date.
 
     public SmartsheetExternalTaskActuals(double scheduledEffort, double estimatedRemainingEffort, double actualEffort, double percentComplete, Date scheduledStart, Date scheduledFinish, Long resourceId) {
         this.scheduledEffort = scheduledEffort;
@@ -23,8 +24,8 @@ public class SmartsheetExternalTaskActuals extends ExternalTaskActuals {
         this.actualEffort = actualEffort;
         this.percentComplete = percentComplete;
         this.resourceId = resourceId == null ? -1 : resourceId.longValue();
-        this.scheduledFinish = scheduledFinish;
-        this.scheduledStart = scheduledStart;
+        this.scheduledFinish = scheduledFinish == null ? null : scheduledFinish.getTime();
+        this.scheduledStart = scheduledStart == null ? null : scheduledStart.getTime();
     }
 
     @Override
@@ -34,8 +35,8 @@ public class SmartsheetExternalTaskActuals extends ExternalTaskActuals {
 
     @Override
     public Date getActualStart() {
-        if (percentComplete > 0d) {
-            return scheduledStart;
+        if (percentComplete > 0d && scheduledStart != null) {
+            return new Date(scheduledStart);
         } else {
             return null;
         }
@@ -43,8 +44,8 @@ public class SmartsheetExternalTaskActuals extends ExternalTaskActuals {
 
     @Override
     public Date getActualFinish() {
-        if (percentComplete >= 100d) {
-            return scheduledFinish;
+        if (percentComplete >= 100d && scheduledFinish != null) {
+            return new Date(scheduledFinish);
         } else {
             return null;
         }
@@ -11,12 +11,26 @@ public class RestRequestException extends RuntimeException {
 
     private final int statusCode;
 
+    private final int retryCount;
+
     public RestRequestException(int statusCode, String message) {
+        this(statusCode, message, 0);
+    }
+
+    public RestRequestException(int statusCode, String message, int retryCount) {
         super(message);
         this.statusCode = statusCode;
-   }
+        this.retryCount = retryCount;
+    }
 
     public int getStatusCode() {
         return statusCode;
     }
+
+    /**
+     * @return how many times the request was retried before giving up.
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.rest;
+
+import com.kintana.core.logging.LogLevel;
+import com.kintana.core.logging.LogManager;
+import com.kintana.core.logging.Logger;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.wink.client.ApacheHttpClientConfig;
+import org.apache.wink.client.RestClient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide HTTP transport shared by all the {@link SmartsheetRestClient} instances.
+ *
+ * We keep one pooled Apache HttpClient (wrapped in a Wink RestClient) per proxy host/port, so that connections
+ * to Smartsheet (and their TLS sessions) are kept alive and reused across services, users and work plan syncs
+ * instead of being re-established for every new SmartsheetService.
+ *
+ * Pool sizing, timeouts and idle eviction can be tuned with the following JVM system properties:
+ * <ul>
+ *     <li>smartsheet.http.maxConnections: max number of pooled connections per proxy (default 20)</li>
+ *     <li>smartsheet.http.idleTimeoutSeconds: pooled connections idle for longer than this are closed (default 60)</li>
+ *     <li>smartsheet.http.connectTimeoutMillis: max time to establish a connection (default 60000)</li>
+ *     <li>smartsheet.http.socketTimeoutMillis: max time without receiving any data on a connection (default 60000)</li>
+ *     <li>smartsheet.http.connectionRequestTimeoutMillis: max time to wait for a free connection of the pool (default 60000)</li>
+ * </ul>
+ * Timeouts make the request fail with an IOException, which is retried like other transient failures.
+ */
+public class SmartsheetHttpTransport {
+
+    private final static Logger logger = LogManager.getLogger(SmartsheetHttpTransport.class);
+
+    private static final int MAX_CONNECTIONS = Integer.getInteger("smartsheet.http.maxConnections", 20);
+
+    private static final long IDLE_TIMEOUT_SECONDS = Long.getLong("smartsheet.http.idleTimeoutSeconds", 60L);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("smartsheet.http.connectTimeoutMillis", 60000);
+
+    private static final int SOCKET_TIMEOUT_MILLIS = Integer.getInteger("smartsheet.http.socketTimeoutMillis", 60000);
+
+    private static final int CONNECTION_REQUEST_TIMEOUT_MILLIS = Integer.getInteger("smartsheet.http.connectionRequestTimeoutMillis", 60000);
+
+    private static final String NO_PROXY_KEY = "";
+
+    private static final Map<String, SmartsheetHttpTransport> transportsByProxy = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService idleConnectionsEvictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "smartsheet-idle-connections-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        long evictionPeriod = Math.max(1L, IDLE_TIMEOUT_SECONDS / 2);
+        idleConnectionsEvictor.scheduleWithFixedDelay(SmartsheetHttpTransport::evictIdleConnections, evictionPeriod, evictionPeriod, TimeUnit.SECONDS);
+    }
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final RestClient restClient;
+
+    private SmartsheetHttpTransport(String proxyHost, Integer proxyPort) {
+
+        if (SmartsheetRestClient.ENABLE_REST_CALLS_STATUS_LOG) {
+            logger.log(LogLevel.STATUS, "Creating pooled HTTP transport with proxy: " + proxyHost + ":" + proxyPort + ", max connections: " + MAX_CONNECTIONS);
+        }
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        // All calls go to the same Smartsheet API host, so a single route may use the whole pool.
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT_MILLIS)
+                .build();
+
+        CloseableHttpClient httpClient;
+        if (proxyHost != null) {
+            httpClient = HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig).setProxy(new HttpHost(proxyHost, proxyPort)).build();
+        } else {
+            httpClient = HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig).useSystemProperties().build();
+        }
+
+        // The proxy is set on the HttpClient itself, Wink's proxy settings are ignored when passing our own HttpClient.
+        restClient = new RestClient(new ApacheHttpClientConfig(httpClient));
+    }
+
+    /**
+     * @return the shared Wink RestClient to use for the given proxy. Pass a null proxyHost if no proxy should be used.
+     */
+    public static RestClient getRestClient(String proxyHost, Integer proxyPort) {
+        String key = proxyHost == null ? NO_PROXY_KEY : (proxyHost + ":" + proxyPort);
+        return transportsByProxy.computeIfAbsent(key, k -> new SmartsheetHttpTransport(proxyHost, proxyPort)).restClient;
+    }
+
+    private static void evictIdleConnections() {
+        try {
+            for (SmartsheetHttpTransport transport : transportsByProxy.values()) {
+                transport.connectionManager.closeExpiredConnections();
+                transport.connectionManager.closeIdleConnections(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } catch (Exception e) {
+            logger.error("Error when evicting idle Smartsheet HTTP connections", e);
+        }
+    }
+}
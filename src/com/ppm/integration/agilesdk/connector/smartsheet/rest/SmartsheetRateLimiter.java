@@ -0,0 +1,207 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket request scheduler, with one bucket per Smartsheet integration token since Smartsheet enforces its rate limits per token.
+ *
+ * Waiting callers are queued by priority, and the queues take turns to get the next permit: the occasional interactive call
+ * (such as a work plan mapping page DDL) only waits for one bulk request (such as a sheet page download of a long running sync) before being served,
+ * and not for all the bulk requests queued before it. Within a queue, callers are served in arrival order.
+ * Nobody holds a lock while waiting for a permit.
+ * Each token has its own bucket and queues, so busy tokens don't slow down the other ones.
+ *
+ * When Smartsheet answers with a HTTP 429, the Retry-After delay is applied to the whole bucket so that no other call is sent with this token before it expires.
+ *
+ * Buckets are kept by hash of the token (tokens are never kept as is), and buckets without waiting callers are dropped when there are too many of them.
+ *
+ * Rate can be tuned with the following JVM system properties:
+ * <ul>
+ *     <li>smartsheet.rateLimit.requestsPerMinute: sustained rate per token (default 300, Smartsheet's documented limit)</li>
+ *     <li>smartsheet.rateLimit.burst: max number of requests that can be sent back to back after being idle (default 10)</li>
+ *     <li>smartsheet.rateLimit.maxTokens: number of tokens above which idle buckets are dropped (default 1000)</li>
+ * </ul>
+ */
+public class SmartsheetRateLimiter {
+
+    /**
+     * Requests of each priority get an equal share of the permits when requests of both priorities are waiting.
+     */
+    public enum Priority {
+        /** Requests a user is waiting for, such as the DDLs of the mapping page. */
+        INTERACTIVE,
+        /** Requests that can be sent many at once, such as sheet page downloads and sub-folder loads, or that nobody waits for, such as background cache refreshes. */
+        BULK
+    }
+
+    private static final int REQUESTS_PER_MINUTE = Integer.getInteger("smartsheet.rateLimit.requestsPerMinute", 300);
+
+    private static final int BURST = Integer.getInteger("smartsheet.rateLimit.burst", 10);
+
+    private static final int MAX_TOKENS = Integer.getInteger("smartsheet.rateLimit.maxTokens", 1000);
+
+    private static final Map<String, SmartsheetRateLimiter> limitersByTokenHash = new LinkedHashMap<String, SmartsheetRateLimiter>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SmartsheetRateLimiter> eldest) {
+            return size() > MAX_TOKENS && eldest.getValue().isIdle();
+        }
+    };
+
+    private final double capacity;
+
+    private final double nanosPerPermit;
+
+    private final AtomicLong blockedUntilNanos = new AtomicLong(System.nanoTime());
+
+    // One queue of waiting callers per priority, guarded by this.
+    private final ArrayDeque<Object>[] waiters;
+
+    // Priority of the queue that got the last permit, guarded by this.
+    private int lastServedPriority = 0;
+
+    private double availablePermits;
+
+    private long lastRefillNanos;
+
+    @SuppressWarnings("unchecked")
+    private SmartsheetRateLimiter(int requestsPerMinute, int burst) {
+        int rpm = Math.max(1, requestsPerMinute);
+        this.capacity = Math.max(1, burst);
+        this.nanosPerPermit = TimeUnit.MINUTES.toNanos(1) / (double)rpm;
+        // We don't start with a full bucket, as other PPM servers or connectors instances may share the same token.
+        this.availablePermits = 1d;
+        this.lastRefillNanos = System.nanoTime();
+
+        this.waiters = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i] = new ArrayDeque<>();
+        }
+    }
+
+    public static SmartsheetRateLimiter forToken(String integrationToken) {
+        String tokenHash = hash(integrationToken == null ? "" : integrationToken);
+        synchronized (limitersByTokenHash) {
+            return limitersByTokenHash.computeIfAbsent(tokenHash, k -> new SmartsheetRateLimiter(REQUESTS_PER_MINUTE, BURST));
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available in every JRE.
+            throw new RuntimeException("Impossible missing SHA-256 algorithm", e);
+        }
+    }
+
+    /**
+     * Blocks until the caller is allowed to send one interactive request with this token.
+     */
+    public void acquire() throws InterruptedException {
+        acquire(Priority.INTERACTIVE);
+    }
+
+    /**
+     * Blocks until the caller is allowed to send one request of the given priority with this token.
+     */
+    public synchronized void acquire(Priority priority) throws InterruptedException {
+        Object waiter = new Object();
+        ArrayDeque<Object> queue = waiters[priority.ordinal()];
+        queue.addLast(waiter);
+
+        boolean acquired = false;
+        try {
+            while (true) {
+                if (getNextWaiter() != waiter) {
+                    // Other callers are served first; we'll be notified when a permit is taken.
+                    wait();
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                refill(now);
+
+                long waitNanos = blockedUntilNanos.get() - now;
+
+                if (waitNanos <= 0) {
+                    if (availablePermits >= 1d) {
+                        availablePermits -= 1d;
+                        acquired = true;
+                        return;
+                    }
+                    waitNanos = (long)Math.ceil((1d - availablePermits) * nanosPerPermit);
+                }
+
+                // Waiting releases the lock, so that other callers can join the queues in the meantime.
+                TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+            }
+        } finally {
+            queue.remove(waiter);
+            if (acquired) {
+                lastServedPriority = priority.ordinal();
+            }
+            // The next waiter in line may have changed.
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the caller to serve next: queues are served in turn, starting with the one after the queue served last.
+     */
+    private Object getNextWaiter() {
+        for (int i = 1; i <= waiters.length; i++) {
+            ArrayDeque<Object> queue = waiters[(lastServedPriority + i) % waiters.length];
+            if (!queue.isEmpty()) {
+                return queue.peekFirst();
+            }
+        }
+        return null;
+    }
+
+    private synchronized boolean isIdle() {
+        for (ArrayDeque<Object> queue : waiters) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * To call when Smartsheet rejected a request with HTTP 429; no request will be sent with this token until the delay is over.
+     */
+    public void onRateLimited(long retryAfterMillis) {
+        long blockedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+        blockedUntilNanos.accumulateAndGet(blockedUntil, Math::max);
+    }
+
+    /**
+     * Must be called while holding the lock. Permits only start accumulating again once any Retry-After delay is over.
+     */
+    private void refill(long now) {
+        long blockedUntil = blockedUntilNanos.get();
+        if (blockedUntil - lastRefillNanos > 0) {
+            availablePermits = 0d;
+            lastRefillNanos = blockedUntil;
+        }
+
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            availablePermits = Math.min(capacity, availablePermits + elapsed / nanosPerPermit);
+            lastRefillNanos = now;
+        }
+    }
+}
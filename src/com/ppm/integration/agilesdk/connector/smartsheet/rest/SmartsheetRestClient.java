@@ -11,7 +11,6 @@ import com.kintana.core.logging.LogManager;
 import com.kintana.core.logging.Logger;
 import com.ppm.integration.agilesdk.connector.smartsheet.SmartsheetConstants;
 import org.apache.commons.lang.StringUtils;
-import org.apache.wink.client.ClientConfig;
 import org.apache.wink.client.ClientResponse;
 import org.apache.wink.client.Resource;
 import org.apache.wink.client.RestClient;
@@ -27,17 +26,25 @@ public class SmartsheetRestClient {
 
     private final static Logger logger = LogManager.getLogger(SmartsheetRestClient.class);
 
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int MAX_RATE_LIMITED_ATTEMPTS = Integer.getInteger("smartsheet.rateLimit.maxAttempts", 8);
+
+    private static final SmartsheetRetryPolicy retryPolicy = new SmartsheetRetryPolicy();
+
     private RestClient restClient;
     private SmartsheetRestConfig smartsheetConfig;
-    private ClientConfig clientConfig;
 
+    /**
+     * The underlying Wink RestClient is shared process-wide (one per proxy) so that HTTP connections are pooled and kept alive.
+     * Creating a SmartsheetRestClient is therefore cheap.
+     */
     public SmartsheetRestClient(SmartsheetRestConfig smartsheetConfig) {
         this.smartsheetConfig = smartsheetConfig;
-        this.clientConfig = smartsheetConfig.getClientConfig();
-        this.restClient = new RestClient(clientConfig);
+        this.restClient = SmartsheetHttpTransport.getRestClient(smartsheetConfig.getProxyHost(), smartsheetConfig.getProxyPort());
 
         if (ENABLE_REST_CALLS_STATUS_LOG) {
-            logger.log(LogLevel.STATUS, "creating REST Client with proxy: " + clientConfig.getProxyHost() + ":" + clientConfig.getProxyPort());
+            logger.log(LogLevel.STATUS, "creating REST Client with proxy: " + smartsheetConfig.getProxyHost() + ":" + smartsheetConfig.getProxyPort());
             logger.log(LogLevel.STATUS, "Proxy System Properties: http.proxyHost:" + System.getProperty("http.proxyHost") + "/https.proxyHost:" +  System.getProperty("https.proxyHost") + "java.net.useSystemProxies:" + System.getProperty("java.net.useSystemProxies", System.getenv("java.net.useSystemProxies")));
         }
     }
@@ -56,10 +63,16 @@ public class SmartsheetRestClient {
             }
             URI uri = null;
             try {
-                uri = new URI(url.getProtocol(), urlPath, url.getPath(), url.getQuery() == null ? null : URLDecoder.decode(url.getQuery(), "UTF-8"), null);
-            } catch (UnsupportedEncodingException e) {
-                // This will never happen.
-                throw new RuntimeException("Impossible encoding error occurred", e);
+                // Valid URLs are sent as they are, so that encoded query values (such as a '+' in a date or a '&' in a search) stay encoded.
+                uri = new URI(fullUrl);
+            } catch (URISyntaxException e) {
+                // URL with characters that must be encoded, such as spaces: the query is decoded first so that already encoded characters are not encoded twice.
+                try {
+                    uri = new URI(url.getProtocol(), urlPath, url.getPath(), url.getQuery() == null ? null : URLDecoder.decode(url.getQuery(), "UTF-8"), null);
+                } catch (UnsupportedEncodingException e1) {
+                    // This will never happen.
+                    throw new RuntimeException("Impossible encoding error occurred", e1);
+                }
             }
             resource = restClient.resource(uri).accept(MediaType.APPLICATION_JSON).header("Authorization", "Bearer " + smartsheetConfig.getAuthToken());
 
@@ -82,33 +95,157 @@ public class SmartsheetRestClient {
     }
 
     public ClientResponse sendGet(String uri) {
+        return sendGet(uri, SmartsheetRateLimiter.Priority.INTERACTIVE);
+    }
+
+    /**
+     * @param priority BULK for requests sent back to back by syncs, so that they don't delay interactive requests sent with the same token.
+     */
+    public ClientResponse sendGet(String uri, SmartsheetRateLimiter.Priority priority) {
 
         if (ENABLE_REST_CALLS_STATUS_LOG) {
             logger.log(LogLevel.STATUS, "GET " + uri);
         }
 
         try {
+            return send("GET", uri, null, 200, priority);
+        } catch (RestRequestException e) {
+            // Kept as is, so that callers get the status code & retry count.
+            logger.error("Error when GET " + uri, e);
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error when GET " + uri, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sends the request once the rate limiter of the integration token allows it.
+     * If Smartsheet still rejects the request with HTTP 429, we wait for the Retry-After delay and queue the request again.
+     * Transient failures of idempotent requests are retried according to the retry policy.
+     */
+    private ClientResponse send(String verb, String uri, String jsonPayload, int expectedHttpStatusCode, SmartsheetRateLimiter.Priority priority) {
+
+        SmartsheetRateLimiter rateLimiter = SmartsheetRateLimiter.forToken(getIntegrationToken());
+
+        boolean isRetryable = retryPolicy.isRetryableVerb(verb);
+
+        int rateLimitedAttempts = 0;
+        int attempt = 0;
+
+        while (true) {
+
+            try {
+                rateLimiter.acquire(priority);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to send " + verb + " " + uri, e);
+            }
+
+            attempt++;
 
             String uuid = UUID.randomUUID().toString();
-            Resource resource = this.getSmartsheetResource(uri, false, uuid);
-            ClientResponse response = resource.get();
+            Resource resource = this.getSmartsheetResource(uri, !"GET".equals(verb), uuid);
+
+            ClientResponse response;
+            try {
+                if ("POST".equals(verb)) {
+                    response = resource.post(jsonPayload);
+                } else if ("PUT".equals(verb)) {
+                    response = resource.put(jsonPayload);
+                } else {
+                    response = resource.get();
+                }
+            } catch (RuntimeException e) {
+                if (isRetryable && retryPolicy.isRetryableException(e) && retryPolicy.tryRetry(attempt)) {
+                    waitBeforeRetry(verb, uri, attempt, e.toString());
+                    continue;
+                }
+                throw e;
+            }
+
+            int statusCode = response.getStatusCode();
+
+            if (statusCode == HTTP_TOO_MANY_REQUESTS && ++rateLimitedAttempts < MAX_RATE_LIMITED_ATTEMPTS) {
+                long retryAfterMillis = getRetryAfterMillis(response, rateLimitedAttempts);
+                logger.log(LogLevel.STATUS, "Smartsheet rate limit reached for " + verb + " " + uri + ", retrying in " + retryAfterMillis + "ms");
+                discardEntity(response);
+                rateLimiter.onRateLimited(retryAfterMillis);
+                // Being throttled is not a failure of the attempt.
+                attempt--;
+                continue;
+            }
+
+            if (statusCode != expectedHttpStatusCode && isRetryable && retryPolicy.isRetryableStatus(statusCode) && retryPolicy.tryRetry(attempt)) {
+                discardEntity(response);
+                waitBeforeRetry(verb, uri, attempt, "HTTP status " + statusCode);
+                continue;
+            }
+
+            checkResponseStatus(expectedHttpStatusCode, response, uri, verb, jsonPayload, uuid, attempt - 1);
 
-            checkResponseStatus(200, response, uri, "GET", null, uuid);
+            retryPolicy.onSuccess();
+
+            if (attempt > 1) {
+                logger.log(LogLevel.STATUS, verb + " " + uri + " succeeded after " + (attempt - 1) + " retries");
+            }
 
             return response;
+        }
+    }
+
+    private void waitBeforeRetry(String verb, String uri, int failedAttempt, String failure) {
+        long delay = retryPolicy.getBackoffDelayMillis(failedAttempt);
+        logger.log(LogLevel.STATUS, "Transient failure (" + failure + ") for " + verb + " " + uri + " on attempt " + failedAttempt + ", retrying in " + delay + "ms");
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to retry " + verb + " " + uri, e);
+        }
+    }
+
+    /**
+     * Uses the Retry-After header (in seconds) when Smartsheet provides it, otherwise an exponential delay based on the attempt number.
+     */
+    static long getRetryAfterMillis(ClientResponse response, int attempt) {
+        String retryAfter = null;
+        try {
+            retryAfter = response.getHeaders().getFirst("Retry-After");
         } catch (Exception e) {
-            logger.error("Error when GET " + uri, e);
-            throw new RuntimeException(e);
+            // No usable header, we'll use the default delay.
+        }
+
+        if (!StringUtils.isBlank(retryAfter)) {
+            try {
+                return Math.max(0L, Long.parseLong(retryAfter.trim()) * 1000L);
+            } catch (NumberFormatException e) {
+                // Retry-After may also be an HTTP date, which Smartsheet doesn't use - we'll use the default delay.
+            }
+        }
+
+        return Math.min(60000L, 1000L << Math.min(attempt, 6));
+    }
+
+    private void discardEntity(ClientResponse response) {
+        try {
+            // Reading the entity releases the pooled connection.
+            response.getEntity(String.class);
+        } catch (Exception e) {
+            // we don't do anything if we cannot get the response.
         }
     }
 
-    private void checkResponseStatus(int expectedHttpStatusCode, ClientResponse response, String uri, String verb, String payload, String uuid) {
+    private void checkResponseStatus(int expectedHttpStatusCode, ClientResponse response, String uri, String verb, String payload, String uuid, int retryCount) {
 
         if (response.getStatusCode() != expectedHttpStatusCode) {
             StringBuilder errorMessage = new StringBuilder(String.format("## Unexpected HTTP response status code %s for %s uri %s, expected %s", response.getStatusCode(), verb, uri, expectedHttpStatusCode));
             if (uuid != null) {
                 errorMessage.append(System.lineSeparator()).append("Value of HTTP tracking header X-B3-TraceId:").append(uuid);
             }
+            if (retryCount > 0) {
+                errorMessage.append(System.lineSeparator()).append("Number of retries:").append(retryCount);
+            }
             if (payload != null) {
                 errorMessage.append(System.lineSeparator()).append(System.lineSeparator()).append("# Sent Payload:").append(System.lineSeparator()).append(payload);
             }
@@ -122,7 +259,7 @@ public class SmartsheetRestClient {
                 errorMessage.append(System.lineSeparator()).append(System.lineSeparator()).append("# Received Response:").append(System.lineSeparator()).append(responseStr);
             }
 
-            throw new RestRequestException(response.getStatusCode(), errorMessage.toString());
+            throw new RestRequestException(response.getStatusCode(), errorMessage.toString(), retryCount);
         }
 
     }
@@ -134,12 +271,11 @@ public class SmartsheetRestClient {
         }
 
         try {
-            String uuid = UUID.randomUUID().toString();
-            Resource resource = this.getSmartsheetResource(uri, true, uuid);
-            ClientResponse response = resource.post(jsonPayload);
-            checkResponseStatus(expectedHttpStatusCode, response, uri, "POST", jsonPayload, uuid);
-
-            return response;
+            return send("POST", uri, jsonPayload, expectedHttpStatusCode, SmartsheetRateLimiter.Priority.INTERACTIVE);
+        } catch (RestRequestException e) {
+            // Kept as is, so that callers get the status code & retry count.
+            logger.error("Error when POST " + uri, e);
+            throw e;
         } catch (Exception e) {
             logger.error("Error when POST " + uri, e);
             throw new RuntimeException(e);
@@ -152,13 +288,7 @@ public class SmartsheetRestClient {
             logger.log(LogLevel.STATUS, "PUT " + uri);
         }
 
-        String uuid = UUID.randomUUID().toString();
-        Resource resource = this.getSmartsheetResource(uri, true, uuid);
-        ClientResponse response = resource.put(jsonPayload);
-
-        checkResponseStatus(expectedHttpStatusCode, response, uri, "PUT", jsonPayload, uuid);
-
-        return response;
+        return send("PUT", uri, jsonPayload, expectedHttpStatusCode, SmartsheetRateLimiter.Priority.INTERACTIVE);
     }
 
     public String getIntegrationToken() {
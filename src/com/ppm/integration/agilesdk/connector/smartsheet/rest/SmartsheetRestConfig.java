@@ -9,36 +9,42 @@ package com.ppm.integration.agilesdk.connector.smartsheet.rest;
 import com.kintana.core.logging.LogLevel;
 import com.kintana.core.logging.LogManager;
 import com.kintana.core.logging.Logger;
-import org.apache.wink.client.ClientConfig;
 
 public class SmartsheetRestConfig {
 
     private final static Logger logger = LogManager.getLogger(SmartsheetRestConfig.class);
 
-    private ClientConfig clientConfig;
+    private String proxyHost;
 
-    private String authToken;
+    private Integer proxyPort;
 
-    public ClientConfig getClientConfig() {
-        return clientConfig;
-    }
+    private String authToken;
 
     public SmartsheetRestConfig() {
-        clientConfig = new ClientConfig();
     }
 
 
-    public ClientConfig setProxy(String proxyHost, String proxyPort) {
+    public void setProxy(String proxyHost, String proxyPort) {
 
         if (SmartsheetRestClient.ENABLE_REST_CALLS_STATUS_LOG) {
             logger.log(LogLevel.STATUS, "Setting proxy: " + proxyHost +":"+proxyPort );
         }
 
         if (proxyHost != null && !proxyHost.isEmpty() && proxyPort != null && !proxyPort.isEmpty()) {
-            clientConfig.proxyHost(proxyHost);
-            clientConfig.proxyPort(Integer.parseInt(proxyPort));
+            this.proxyHost = proxyHost;
+            this.proxyPort = Integer.parseInt(proxyPort);
         }
-        return clientConfig;
+    }
+
+    /**
+     * @return the proxy host, or null if no proxy should be used.
+     */
+    public String getProxyHost() {
+        return proxyHost;
+    }
+
+    public Integer getProxyPort() {
+        return proxyPort;
     }
 
 
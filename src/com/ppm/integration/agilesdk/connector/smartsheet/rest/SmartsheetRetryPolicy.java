@@ -0,0 +1,99 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.rest;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed Smartsheet call should be retried, and how long to wait before doing so.
+ *
+ * Only transient failures are retried (HTTP 500/502/503/504 and I/O errors such as connection resets or timeouts),
+ * using an exponential backoff with full jitter so that many syncs failing at the same time don't all retry at once.
+ *
+ * Retries are also limited by a process-wide retry budget: every successful call earns a fraction of a retry,
+ * and every retry spends one. During a long Smartsheet outage, the budget gets exhausted and calls fail fast
+ * instead of multiplying the load with retries.
+ *
+ * Policy can be tuned with the following JVM system properties:
+ * <ul>
+ *     <li>smartsheet.retry.maxAttempts: max number of attempts per call, including the first one (default 4)</li>
+ *     <li>smartsheet.retry.baseDelayMillis: backoff delay before the first retry (default 500)</li>
+ *     <li>smartsheet.retry.maxDelayMillis: max backoff delay between two attempts (default 30000)</li>
+ *     <li>smartsheet.retry.budgetRatio: retries earned per successful call (default 0.2)</li>
+ *     <li>smartsheet.retry.budgetMin: retries always allowed, even without any successful call (default 10)</li>
+ * </ul>
+ */
+public class SmartsheetRetryPolicy {
+
+    private final int maxAttempts = Integer.getInteger("smartsheet.retry.maxAttempts", 4);
+
+    private final long baseDelayMillis = Long.getLong("smartsheet.retry.baseDelayMillis", 500L);
+
+    private final long maxDelayMillis = Long.getLong("smartsheet.retry.maxDelayMillis", 30000L);
+
+    private final double budgetRatio = Double.parseDouble(System.getProperty("smartsheet.retry.budgetRatio", "0.2"));
+
+    private final double budgetMin = Integer.getInteger("smartsheet.retry.budgetMin", 10);
+
+    private final double budgetMax = Math.max(budgetMin, 100d);
+
+    private double budget = budgetMin;
+
+    public boolean isRetryableVerb(String verb) {
+        // POST creates things in Smartsheet and is not idempotent.
+        return "GET".equals(verb) || "PUT".equals(verb);
+    }
+
+    public boolean isRetryableStatus(int statusCode) {
+        return statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * @return true if the exception (or one of its causes) is an I/O error, such as a connection reset or a read timeout.
+     */
+    public boolean isRetryableException(Throwable e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt the number of the attempt that just failed, starting at 1.
+     * @return true if another attempt can be made, in which case one retry is withdrawn from the budget.
+     */
+    public synchronized boolean tryRetry(int attempt) {
+        if (attempt >= maxAttempts || budget < 1d) {
+            return false;
+        }
+        budget -= 1d;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        budget = Math.min(budgetMax, budget + budgetRatio);
+    }
+
+    /**
+     * @param attempt the number of the attempt that just failed, starting at 1.
+     * @return a random delay between 0 and the exponential backoff delay for that attempt ("full jitter").
+     */
+    public long getBackoffDelayMillis(int attempt) {
+        int shift = Math.max(0, Math.min(attempt - 1, 20));
+        long maxDelay = Math.max(0L, Math.min(maxDelayMillis, Long.MAX_VALUE - 1));
+        long baseDelay = Math.max(0L, baseDelayMillis);
+        // Shifting a base delay above maxDelay >> shift would exceed the max delay, or even overflow.
+        long backoff = baseDelay > (maxDelay >> shift) ? maxDelay : (baseDelay << shift);
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+}
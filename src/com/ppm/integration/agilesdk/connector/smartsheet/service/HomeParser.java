@@ -0,0 +1,185 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.HomeResponse;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.SmartsheetSheet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Streaming parser for the JSON payload of /home, or of a single workspace or folder.
+ *
+ * Navigation only needs the ID & name of sheets, folders and workspaces, so all the other fields (permalinks, access levels, dates, reports, templates...)
+ * are skipped while reading the HTTP response stream instead of being materialized.
+ * Nested folders are read with an explicit stack, so deeply nested folders cannot overflow the stack.
+ */
+class HomeParser {
+
+    private final HomeResponse home = new HomeResponse();
+
+    /**
+     * Content of a home, workspace or folder being read, until the end of its JSON object.
+     */
+    private static class Container {
+        final Object target;
+        String id;
+        String name;
+        SmartsheetSheet[] sheets;
+        List<HomeResponse.Folder> folders;
+        List<HomeResponse.Workspace> workspaces;
+        boolean inFolders;
+        boolean inWorkspaces;
+
+        Container(Object target) {
+            this.target = target;
+        }
+
+        void complete() {
+            HomeResponse.Folder[] foldersArray = folders == null ? null : folders.toArray(new HomeResponse.Folder[folders.size()]);
+
+            if (target instanceof HomeResponse) {
+                HomeResponse home = (HomeResponse)target;
+                home.sheets = sheets;
+                home.folders = foldersArray;
+                home.workspaces = workspaces == null ? null : workspaces.toArray(new HomeResponse.Workspace[workspaces.size()]);
+            } else if (target instanceof HomeResponse.Workspace) {
+                HomeResponse.Workspace workspace = (HomeResponse.Workspace)target;
+                workspace.id = id;
+                workspace.name = name;
+                workspace.sheets = sheets;
+                workspace.folders = foldersArray;
+            } else {
+                HomeResponse.Folder folder = (HomeResponse.Folder)target;
+                folder.id = id;
+                folder.name = name;
+                folder.sheets = sheets;
+                folder.folders = foldersArray;
+            }
+        }
+    }
+
+    HomeResponse parseHome(InputStream in) throws IOException {
+        parse(in, home);
+        return home;
+    }
+
+    HomeResponse.Workspace parseWorkspace(InputStream in) throws IOException {
+        HomeResponse.Workspace workspace = home.new Workspace();
+        parse(in, workspace);
+        return workspace;
+    }
+
+    HomeResponse.Folder parseFolder(InputStream in) throws IOException {
+        HomeResponse.Folder folder = home.new Folder();
+        parse(in, folder);
+        return folder;
+    }
+
+    private void parse(InputStream in, Object root) throws IOException {
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+
+            Deque<Container> containers = new ArrayDeque<>();
+            containers.push(new Container(root));
+            reader.beginObject();
+
+            while (!containers.isEmpty()) {
+                Container container = containers.peek();
+
+                if (container.inFolders || container.inWorkspaces) {
+                    if (!reader.hasNext()) {
+                        reader.endArray();
+                        container.inFolders = false;
+                        container.inWorkspaces = false;
+                    } else if (container.inFolders) {
+                        HomeResponse.Folder folder = home.new Folder();
+                        container.folders.add(folder);
+                        reader.beginObject();
+                        containers.push(new Container(folder));
+                    } else {
+                        HomeResponse.Workspace workspace = home.new Workspace();
+                        container.workspaces.add(workspace);
+                        reader.beginObject();
+                        containers.push(new Container(workspace));
+                    }
+                    continue;
+                }
+
+                if (!reader.hasNext()) {
+                    reader.endObject();
+                    container.complete();
+                    containers.pop();
+                    continue;
+                }
+
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "id":
+                        container.id = reader.nextString();
+                        break;
+                    case "name":
+                        container.name = reader.nextString();
+                        break;
+                    case "sheets":
+                        container.sheets = readSheets(reader);
+                        break;
+                    case "folders":
+                        reader.beginArray();
+                        container.folders = new ArrayList<>();
+                        container.inFolders = true;
+                        break;
+                    case "workspaces":
+                        reader.beginArray();
+                        container.workspaces = new ArrayList<>();
+                        container.inWorkspaces = true;
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+        }
+    }
+
+    private SmartsheetSheet[] readSheets(JsonReader reader) throws IOException {
+        List<SmartsheetSheet> sheets = new ArrayList<>();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            SmartsheetSheet sheet = new SmartsheetSheet();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if ("id".equals(name)) {
+                    sheet.id = reader.nextString();
+                } else if ("name".equals(name)) {
+                    sheet.name = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            sheets.add(sheet);
+        }
+        reader.endArray();
+
+        return sheets.toArray(new SmartsheetSheet[sheets.size()]);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import com.hp.ppm.user.model.User;
+import com.ppm.integration.agilesdk.provider.UserProvider;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the contacts of Smartsheet contact cells to PPM users.
+ *
+ * All the contact values of a sheet are resolved together: each distinct contact is looked up only once, and the found PPM user IDs
+ * are cached across syncs. Contacts that don't match any PPM user are cached too (for a shorter time by default), so that they're not looked up again on every sync.
+ *
+ * Cache settings can be changed with JVM system properties:
+ * <ul>
+ *     <li>smartsheet.userCache.ttlSeconds (default 600)</li>
+ *     <li>smartsheet.userCache.unknownTtlSeconds (default 120)</li>
+ *     <li>smartsheet.userCache.maxEntries (default 10000)</li>
+ * </ul>
+ */
+public class PpmUserResolver {
+
+    private static final int MAX_ENTRIES = Integer.getInteger("smartsheet.userCache.maxEntries", 10000);
+
+    private static final TtlCache<String, Long> userIdsByContact = new TtlCache<>("PPM users",
+            Long.getLong("smartsheet.userCache.ttlSeconds", 600L), TimeUnit.SECONDS, MAX_ENTRIES);
+
+    private static final TtlCache<String, Boolean> unknownContacts = new TtlCache<>("Unknown PPM users",
+            Long.getLong("smartsheet.userCache.unknownTtlSeconds", 120L), TimeUnit.SECONDS, MAX_ENTRIES);
+
+    private final UserProvider userProvider;
+
+    public PpmUserResolver(UserProvider userProvider) {
+        this.userProvider = userProvider;
+    }
+
+    /**
+     * @param contactValues values of contact cells. A value can hold several contacts separated by commas (multi-contact cells).
+     * @return the PPM user IDs of each of the values, without duplicates. The returned lists must not be modified.
+     */
+    public Map<String, List<Long>> resolve(Collection<String> contactValues) {
+
+        Map<String, Long> userIds = new HashMap<>();
+        Map<String, List<Long>> userIdsByValue = new HashMap<>(contactValues.size() * 2);
+
+        for (String value : contactValues) {
+            Set<Long> valueUserIds = new LinkedHashSet<>();
+
+            for (String contact : splitContacts(value)) {
+                Long userId = userIds.computeIfAbsent(contact, this::getUserId);
+                if (userId != null) {
+                    valueUserIds.add(userId);
+                }
+            }
+
+            userIdsByValue.put(value, valueUserIds.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(valueUserIds)));
+        }
+
+        return userIdsByValue;
+    }
+
+    /**
+     * Only values with an email (i.e. an '@') are considered as contacts.
+     */
+    private List<String> splitContacts(String value) {
+        if (value == null || !value.contains("@")) {
+            return Collections.emptyList();
+        }
+
+        List<String> contacts = new ArrayList<>(1);
+        for (String contact : value.split(",")) {
+            if (!StringUtils.isBlank(contact)) {
+                contacts.add(contact.trim());
+            }
+        }
+        return contacts;
+    }
+
+    private Long getUserId(String emailOrUsername) {
+        Long userId = userIdsByContact.getIfPresent(emailOrUsername);
+        if (userId != null || unknownContacts.getIfPresent(emailOrUsername) != null) {
+            return userId;
+        }
+
+        User user = userProvider.getByEmail(emailOrUsername);
+
+        if (user == null) {
+            user = userProvider.getByUsername(emailOrUsername);
+        }
+
+        if (user == null || user.getUserId() == null) {
+            unknownContacts.put(emailOrUsername, Boolean.TRUE);
+            return null;
+        }
+
+        userIdsByContact.put(emailOrUsername, user.getUserId());
+        return user.getUserId();
+    }
+}
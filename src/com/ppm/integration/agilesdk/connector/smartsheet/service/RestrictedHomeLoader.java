@@ -0,0 +1,157 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import com.ppm.integration.agilesdk.connector.smartsheet.SmartsheetConstants;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.HomeResponse;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.RestRequestException;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRateLimiter;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRestClient;
+import org.apache.wink.client.ClientResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the content of a single workspace or folder, with all its sub-folders, instead of the content of the whole /home.
+ *
+ * The workspace & folders endpoints only return the direct content of a workspace/folder, so each sub-folder is retrieved with its own call;
+ * sub-folders are loaded concurrently, all calls still being subject to the rate limit of the integration token.
+ * Sub-folders are requested with the bulk priority, so that this fan-out doesn't hold back the interactive calls of other users.
+ *
+ * Max number of concurrent calls can be set with JVM system property smartsheet.navigation.parallelism (default 4).
+ */
+class RestrictedHomeLoader {
+
+    private static final ExecutorService foldersExecutor = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger("smartsheet.navigation.parallelism", 4)), r -> {
+        Thread t = new Thread(r, "smartsheet-folders-load");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final SmartsheetRestClient restClient;
+
+    private final SmartsheetRateLimiter.Priority priority;
+
+    /**
+     * @param priority priority of the request of the workspace or folder itself.
+     */
+    RestrictedHomeLoader(SmartsheetRestClient restClient, SmartsheetRateLimiter.Priority priority) {
+        this.restClient = restClient;
+        this.priority = priority;
+    }
+
+    /**
+     * @return a HomeResponse only containing the workspace, with all its folders & sheets; an empty HomeResponse if the workspace doesn't exist,
+     * as when looking for the workspace in the whole /home content.
+     */
+    HomeResponse loadWorkspace(String workspaceId) {
+        HomeResponse home = new HomeResponse();
+
+        HomeResponse.Workspace workspace = getIfExists(SmartsheetConstants.API_WORKSPACES + workspaceId, priority, HomeParser::parseWorkspace);
+        if (workspace == null) {
+            return home;
+        }
+
+        workspace.folders = join(loadFolders(workspace.folders));
+
+        home.workspaces = new HomeResponse.Workspace[] {workspace};
+        return home;
+    }
+
+    /**
+     * @return a HomeResponse only containing the folder, with all its sub-folders & sheets; an empty HomeResponse if the folder doesn't exist,
+     * as when looking for the folder in the whole /home content.
+     */
+    HomeResponse loadFolder(String folderId) {
+        HomeResponse home = new HomeResponse();
+
+        HomeResponse.Folder folder = join(loadFolderTree(folderId, priority));
+        if (folder != null) {
+            home.folders = new HomeResponse.Folder[] {folder};
+        }
+        return home;
+    }
+
+    /**
+     * @return the folder with all its sub-folders, or null if it doesn't exist (anymore).
+     */
+    private CompletableFuture<HomeResponse.Folder> loadFolderTree(String folderId, SmartsheetRateLimiter.Priority folderPriority) {
+        return CompletableFuture.supplyAsync(() -> getIfExists(SmartsheetConstants.API_FOLDERS + folderId, folderPriority, HomeParser::parseFolder), foldersExecutor)
+                .thenCompose(folder -> folder == null ? CompletableFuture.completedFuture(null) : loadFolders(folder.folders).thenApply(subFolders -> {
+                    folder.folders = subFolders;
+                    return folder;
+                }));
+    }
+
+    /**
+     * @param folders folders as returned in the content of their parent, i.e. without their own content.
+     */
+    private CompletableFuture<HomeResponse.Folder[]> loadFolders(HomeResponse.Folder[] folders) {
+        if (folders == null || folders.length == 0) {
+            return CompletableFuture.completedFuture(folders);
+        }
+
+        List<CompletableFuture<HomeResponse.Folder>> subFolders = new ArrayList<>(folders.length);
+        for (HomeResponse.Folder folder : folders) {
+            subFolders.add(loadFolderTree(folder.id, SmartsheetRateLimiter.Priority.BULK));
+        }
+
+        return CompletableFuture.allOf(subFolders.toArray(new CompletableFuture[subFolders.size()])).thenApply(v -> {
+            List<HomeResponse.Folder> loadedFolders = new ArrayList<>(subFolders.size());
+            for (CompletableFuture<HomeResponse.Folder> subFolder : subFolders) {
+                // Sub-folders deleted since their parent was retrieved are skipped.
+                if (subFolder.join() != null) {
+                    loadedFolders.add(subFolder.join());
+                }
+            }
+            return loadedFolders.toArray(new HomeResponse.Folder[loadedFolders.size()]);
+        });
+    }
+
+    private interface ContentParser<T> {
+        T parse(HomeParser parser, InputStream in) throws IOException;
+    }
+
+    private <T> T get(String url, SmartsheetRateLimiter.Priority requestPriority, ContentParser<T> contentParser) {
+        ClientResponse response = restClient.sendGet(url, requestPriority);
+        try (InputStream in = response.getEntity(InputStream.class)) {
+            return contentParser.parse(new HomeParser(), in);
+        } catch (IOException e) {
+            throw new RuntimeException("Error when reading Smartsheet content " + url, e);
+        }
+    }
+
+    /**
+     * @return the parsed content, or null if Smartsheet answers that it doesn't exist.
+     */
+    private <T> T getIfExists(String url, SmartsheetRateLimiter.Priority requestPriority, ContentParser<T> contentParser) {
+        try {
+            return get(url, requestPriority, contentParser);
+        } catch (RestRequestException e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import com.ppm.integration.agilesdk.connector.smartsheet.model.LongIntHashMap;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.SmartsheetSheet;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.RestRequestException;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRateLimiter;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRestClient;
+import org.apache.wink.client.ClientResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Downloads all the rows of a sheet page by page, with several pages downloaded and parsed concurrently.
+ *
+ * Rows are passed to the consumers in the sheet order, on the calling thread, as soon as their page is available,
+ * so that processing the first rows overlaps with the download of the next pages. Since all requests go through the
+ * {@link SmartsheetRestClient}, concurrent page downloads are still subject to the rate limit of the integration token.
+ *
+ * Page size is adapted to the observed latency of previous page downloads of the same sheet with the same number of columns,
+ * aiming at pages taking about smartsheet.paging.targetPageMillis each.
+ *
+ * Can be tuned with the following JVM system properties:
+ * <ul>
+ *     <li>smartsheet.paging.parallelism: max number of pages being downloaded at the same time for a sheet (default 4)</li>
+ *     <li>smartsheet.paging.maxThreads: max number of pages being downloaded at the same time for all sheets (default 16)</li>
+ *     <li>smartsheet.paging.targetPageMillis: target duration of a page download (default 2000)</li>
+ *     <li>smartsheet.paging.minPageSize & smartsheet.paging.maxPageSize: page size bounds (default 100 & 5000)</li>
+ * </ul>
+ */
+class SheetPageDownloader {
+
+    private static final int PARALLELISM = Math.max(1, Integer.getInteger("smartsheet.paging.parallelism", 4));
+
+    private static final long TARGET_PAGE_MILLIS = Long.getLong("smartsheet.paging.targetPageMillis", 2000L);
+
+    private static final int MIN_PAGE_SIZE = Integer.getInteger("smartsheet.paging.minPageSize", 100);
+
+    private static final int MAX_PAGE_SIZE = Integer.getInteger("smartsheet.paging.maxPageSize", 5000);
+
+    private static final int INITIAL_PAGE_SIZE = Math.min(MAX_PAGE_SIZE, Math.max(MIN_PAGE_SIZE, 1000));
+
+    private static final int MAX_THREADS = Math.max(1, Integer.getInteger("smartsheet.paging.maxThreads", 16));
+
+    // Pages of all the sheets being downloaded share these threads; extra pages wait for a free thread.
+    private static final ThreadPoolExecutor pagesExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread t = new Thread(r, "smartsheet-sheet-page-download");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        pagesExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Download & parse time per row depends on the number of retrieved columns, so it's tracked per sheet & number of columns.
+    private static final int MAX_TRACKED_LATENCIES = 1000;
+
+    // Exponentially weighted moving average of the download & parse time per row, by latency key. Guarded by itself.
+    private static final Map<String, Double> millisPerRowByKey = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            return size() > MAX_TRACKED_LATENCIES;
+        }
+    };
+
+    private final SmartsheetRestClient restClient;
+
+    private final Set<String> keptColumnIds;
+
+    SheetPageDownloader(SmartsheetRestClient restClient, Set<String> keptColumnIds) {
+        this.restClient = restClient;
+        this.keptColumnIds = keptColumnIds;
+    }
+
+    /**
+     * A downloaded page of rows, including blank rows (that have null cells).
+     */
+    private static class Page {
+        SmartsheetSheet sheet;
+        final List<SmartsheetSheet.SmartsheetRow> rows = new ArrayList<>();
+    }
+
+    /**
+     * Thrown when the sheet was modified while its pages were downloaded: pages may then miss rows or have some rows twice,
+     * so the rows already passed to the consumers must be discarded.
+     */
+    static class SheetModifiedException extends RuntimeException {
+        SheetModifiedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param headerConsumer gets the sheet properties & columns of the first page, before any row is passed to the other consumers.
+     * @return the sheet, without its rows.
+     * @throws SheetModifiedException if the sheet was modified while its pages were downloaded.
+     */
+    SmartsheetSheet download(String url, String sheetId, Consumer<SmartsheetSheet> headerConsumer, Consumer<SmartsheetSheet.SmartsheetRow> rowConsumer, Consumer<SmartsheetSheet.SmartsheetRow> blankRowConsumer) {
+
+        final int pageSize = getPageSize(getLatencyKey(sheetId));
+
+        Page firstPage = downloadPage(url, sheetId, 1, pageSize);
+        SmartsheetSheet sheet = firstPage.sheet;
+        headerConsumer.accept(sheet);
+        LongIntHashMap deliveredRowIds = new LongIntHashMap();
+        deliver(firstPage, deliveredRowIds, rowConsumer, blankRowConsumer);
+
+        if (firstPage.rows.size() < pageSize || sheet.totalRowCount == null) {
+            return sheet;
+        }
+
+        int pageCount = (sheet.totalRowCount + pageSize - 1) / pageSize;
+        int nextPage = 2;
+        Deque<Future<Page>> inFlight = new ArrayDeque<>();
+
+        try {
+            while (nextPage <= pageCount && inFlight.size() < PARALLELISM) {
+                inFlight.add(submitPage(url, sheetId, nextPage++, pageSize));
+            }
+
+            while (!inFlight.isEmpty()) {
+                Page page = inFlight.poll().get();
+
+                if (nextPage <= pageCount) {
+                    inFlight.add(submitPage(url, sheetId, nextPage++, pageSize));
+                }
+
+                if (!Objects.equals(sheet.version, page.sheet.version)) {
+                    // Rows may have been added or deleted in pages already downloaded, so some rows may be missing.
+                    throw new SheetModifiedException("Smartsheet sheet " + sheetId + " was modified while downloading its pages");
+                }
+
+                deliver(page, deliveredRowIds, rowConsumer, blankRowConsumer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while downloading Smartsheet sheet " + sheetId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RestRequestException) {
+                // Kept as is, so that callers get the status code & retry count.
+                throw (RestRequestException)e.getCause();
+            }
+            throw new RuntimeException("Error when downloading Smartsheet sheet " + sheetId, e.getCause());
+        } finally {
+            for (Future<Page> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+
+        return sheet;
+    }
+
+    private Future<Page> submitPage(String url, String sheetId, int pageNumber, int pageSize) {
+        return pagesExecutor.submit(() -> downloadPage(url, sheetId, pageNumber, pageSize));
+    }
+
+    private Page downloadPage(String url, String sheetId, int pageNumber, int pageSize) {
+        String pageUrl = url + (url.contains("?") ? "&" : "?") + "page=" + pageNumber + "&pageSize=" + pageSize;
+
+        long start = System.currentTimeMillis();
+
+        ClientResponse response = restClient.sendGet(pageUrl, SmartsheetRateLimiter.Priority.BULK);
+
+        Page page = new Page();
+        try (InputStream in = response.getEntity(InputStream.class)) {
+            page.sheet = new SmartsheetSheetParser(keptColumnIds).parse(in, null, page.rows::add, page.rows::add);
+        } catch (IOException e) {
+            throw new RuntimeException("Error when reading page " + pageNumber + " of Smartsheet sheet " + sheetId, e);
+        }
+
+        recordLatency(getLatencyKey(sheetId), System.currentTimeMillis() - start, page.rows.size());
+
+        return page;
+    }
+
+    private void deliver(Page page, LongIntHashMap deliveredRowIds, Consumer<SmartsheetSheet.SmartsheetRow> rowConsumer, Consumer<SmartsheetSheet.SmartsheetRow> blankRowConsumer) {
+        for (SmartsheetSheet.SmartsheetRow row : page.rows) {
+            if (deliveredRowIds.put(row.id, 0) != LongIntHashMap.NO_VALUE) {
+                // Rows may move from one page to the next if rows are inserted while downloading.
+                continue;
+            }
+            if (row.cells != null) {
+                rowConsumer.accept(row);
+            } else if (blankRowConsumer != null) {
+                blankRowConsumer.accept(row);
+            }
+        }
+    }
+
+    private String getLatencyKey(String sheetId) {
+        return sheetId + " " + (keptColumnIds == null ? "all" : String.valueOf(keptColumnIds.size()));
+    }
+
+    private static void recordLatency(String latencyKey, long elapsedMillis, int rowsCount) {
+        if (rowsCount == 0) {
+            return;
+        }
+        double pageMillisPerRow = elapsedMillis / (double)rowsCount;
+        synchronized (millisPerRowByKey) {
+            millisPerRowByKey.merge(latencyKey, pageMillisPerRow, (previous, current) -> 0.7d * previous + 0.3d * current);
+        }
+    }
+
+    private static int getPageSize(String latencyKey) {
+        Double currentMillisPerRow;
+        synchronized (millisPerRowByKey) {
+            currentMillisPerRow = millisPerRowByKey.get(latencyKey);
+        }
+        if (currentMillisPerRow == null || currentMillisPerRow <= 0) {
+            return INITIAL_PAGE_SIZE;
+        }
+        long pageSize = Math.round(TARGET_PAGE_MILLIS / currentMillisPerRow / 100d) * 100L;
+        return (int)Math.min(MAX_PAGE_SIZE, Math.max(MIN_PAGE_SIZE, pageSize));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import com.ppm.integration.agilesdk.connector.smartsheet.model.ColumnarSheet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide LRU cache of the last fetched content of sheets, keyed by the URL used to retrieve it (which includes the retrieved columns)
+ * and by how the columns are mapped to task fields.
+ *
+ * Only the columnar values of the mapped columns are cached, never the parsed rows & cells. Cached sheets are immutable, and shared between all the syncs of the same sheet.
+ * Entries are only reused after checking with Smartsheet that the sheet version didn't change,
+ * which also ensures that the current integration token can still access the sheet.
+ *
+ * Max number of cached sheets can be set with JVM system property smartsheet.sheetCache.maxSheets (default 200).
+ */
+class SheetSnapshotCache {
+
+    private static final int MAX_SHEETS = Integer.getInteger("smartsheet.sheetCache.maxSheets", 200);
+
+    private static final Map<String, SheetSnapshot> snapshotsByKey = new LinkedHashMap<String, SheetSnapshot>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SheetSnapshot> eldest) {
+            return size() > MAX_SHEETS;
+        }
+    };
+
+    /**
+     * The values of all the rows of a retrieved sheet (including blank rows) in the sheet order, with the sheet version & modification date when retrieved,
+     * and the type of each retrieved column.
+     */
+    static class SheetSnapshot {
+        final ColumnarSheet sheet;
+        final Long version;
+        final String modifiedAt;
+        final Map<String, String> columnTypesById;
+
+        SheetSnapshot(ColumnarSheet sheet, Long version, String modifiedAt, Map<String, String> columnTypesById) {
+            this.sheet = sheet;
+            this.version = version;
+            this.modifiedAt = modifiedAt;
+            this.columnTypesById = columnTypesById;
+        }
+
+        long getVersion() {
+            return version == null ? -1L : version.longValue();
+        }
+    }
+
+    /**
+     * @return the last cached snapshot for that key, whatever its version, or null if there's none.
+     */
+    static SheetSnapshot get(String key) {
+        synchronized (snapshotsByKey) {
+            return snapshotsByKey.get(key);
+        }
+    }
+
+    static void put(String key, SheetSnapshot snapshot) {
+        if (snapshot.version == null) {
+            return;
+        }
+        synchronized (snapshotsByKey) {
+            snapshotsByKey.put(key, snapshot);
+        }
+    }
+}
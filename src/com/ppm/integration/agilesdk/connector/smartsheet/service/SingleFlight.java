@@ -0,0 +1,54 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical reads: while a call for a given key is in progress, other callers asking for the same key
+ * don't make their own call but wait for the result of the one in progress, and all get the same result (or exception).
+ *
+ * Results are not kept once the call is over, so this is not a cache. As results are shared, they must be treated as read-only.
+ */
+class SingleFlight {
+
+    private static final ConcurrentMap<String, CompletableFuture<Object>> callsInFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param key should identify both the integration token and the URL requested, as results must not be shared between tokens.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T execute(String key, Supplier<T> call) {
+        CompletableFuture<Object> ownFuture = new CompletableFuture<>();
+        CompletableFuture<Object> future = callsInFlight.putIfAbsent(key, ownFuture);
+
+        if (future != null) {
+            // Same call already in progress, let's wait for its result.
+            try {
+                return (T)future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            T result = call.get();
+            ownFuture.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            ownFuture.completeExceptionally(e);
+            throw e;
+        } finally {
+            callsInFlight.remove(key, ownFuture);
+        }
+    }
+}
@@ -4,26 +4,71 @@ import com.google.gson.*;
 import com.ppm.integration.agilesdk.ValueSet;
 import com.ppm.integration.agilesdk.connector.smartsheet.SmartsheetConstants;
 import com.ppm.integration.agilesdk.connector.smartsheet.model.*;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRateLimiter;
 import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRestClient;
-import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRestConfig;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.wink.client.ClientResponse;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
- * Class in charge of making calls to Smartsheet REST API when needed. Contains a cache, so the service should not be a static member of a class, as the caches are never invalidated and might contain stale data if used as such.
+ * Class in charge of making calls to Smartsheet REST API when needed.
  *
- * This class not thread safe.
+ * Caches are shared by all the service instances and scoped by integration token (or check with Smartsheet that the cached data is still valid),
+ * and columns info cache entries expire after a while, so the service can be kept and shared.
  */
 public class SmartsheetService {
 
     private final static Logger logger = Logger.getLogger(SmartsheetService.class);
 
-    private SmartsheetRestClient restClient;
+    // Set JVM system property smartsheet.sheetCache.deltaSync to false to always retrieve all the rows of modified sheets.
+    private static final boolean DELTA_SYNC = Boolean.parseBoolean(System.getProperty("smartsheet.sheetCache.deltaSync", "true"));
 
-    // We cache Sheet column info to avoid making the call for every DDL
-    Map<String, SmartsheetSheet> basicSheetInfoById = new HashMap<>();
+    // Rows modified up to that many seconds before the previous retrieval of a sheet are retrieved again, as Smartsheet modification dates have no milliseconds.
+    private static final long DELTA_SYNC_MARGIN_SECONDS = Long.getLong("smartsheet.sheetCache.deltaSyncMarginSeconds", 60L);
+
+    // Set JVM system property smartsheet.paging.enabled to false to always download sheets in a single request.
+    private static final boolean PAGED_DOWNLOAD = Boolean.parseBoolean(System.getProperty("smartsheet.paging.enabled", "true"));
+
+    // We cache Sheet column info to avoid making the call for every DDL. Key is integration token + sheet ID.
+    private static final TtlCache<String, SmartsheetSheet> basicSheetInfoByTokenAndId = new TtlCache<>("Sheet columns",
+            Long.getLong("smartsheet.columnsCache.ttlSeconds", 600L), TimeUnit.SECONDS,
+            Integer.getInteger("smartsheet.columnsCache.maxEntries", 1000));
+
+    private static final long HOME_CACHE_TTL_SECONDS = Long.getLong("smartsheet.homeCache.ttlSeconds", 300L);
+
+    private static final ExecutorService cacheRefreshExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "smartsheet-cache-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Parsed /home content per integration token (or restricted content per integration token & restriction), refreshed in the background when read after 80% of its time to live.
+    private static final TtlCache<String, HomeResponse> homeByToken = new TtlCache<>("Home", HOME_CACHE_TTL_SECONDS, TimeUnit.SECONDS,
+            Integer.getInteger("smartsheet.homeCache.maxEntries", 100), HOME_CACHE_TTL_SECONDS * 4 / 5, cacheRefreshExecutor);
+
+    // Recent sheet searches results per integration token & query, so that the sheets DDL can be re-rendered without searching again.
+    private static final TtlCache<String, List<SmartsheetSheet>> sheetSearchByTokenAndQuery = new TtlCache<>("Sheet search",
+            Long.getLong("smartsheet.sheetSearch.ttlSeconds", 60L), TimeUnit.SECONDS,
+            Integer.getInteger("smartsheet.sheetSearch.maxEntries", 200));
+
+    private static final int SHEET_SEARCH_MAX_RESULTS = Integer.getInteger("smartsheet.sheetSearch.maxResults", 100);
+
+    private final SmartsheetRestClient restClient;
 
     public SmartsheetService(SmartsheetRestClient restClient) {
         this.restClient = restClient;
@@ -33,39 +78,133 @@ public class SmartsheetService {
      *
      * Returns all sheets, possibly only the ones located in a given folder or workspace.
      *
-     * We're always retrieving the whole content of /home even when filtered by workspace/folder,
-     * as it's the only way to get all the sheets without looking in all the sub-folders one by one.
+     * When filtered by workspace/folder, we only retrieve the content of that workspace/folder (and its sub-folders).
+     * Otherwise, we retrieve the whole content of /home, as it's the only way to get all the sheets without looking in all the sub-folders one by one.
      *
      * @param sheetRestriction w_workspace_id or f_folder_id or null/empty if you want all sheets.
      * @return
      */
     public List<SmartsheetSheet> getAllSheets(String sheetRestriction) {
 
-        HomeResponse home = getHome();
-
         List<SmartsheetSheet> sheets = null;
 
         if (sheetRestriction != null && sheetRestriction.startsWith(SmartsheetConstants.WORKSPACE_RESTRICTION_PREFIX)) {
-            sheets = home.getWorkspaceSheets(sheetRestriction.substring(SmartsheetConstants.WORKSPACE_RESTRICTION_PREFIX.length()));
+            String workspaceId = sheetRestriction.substring(SmartsheetConstants.WORKSPACE_RESTRICTION_PREFIX.length());
+            sheets = getRestrictedHome(sheetRestriction, priority -> new RestrictedHomeLoader(restClient, priority).loadWorkspace(workspaceId)).getWorkspaceSheets(workspaceId);
         } else if (sheetRestriction != null && sheetRestriction.startsWith(SmartsheetConstants.FOLDER_RESTRICTION_PREFIX)) {
-            sheets = home.getFolderSheets(sheetRestriction.substring(SmartsheetConstants.FOLDER_RESTRICTION_PREFIX.length()));
+            String folderId = sheetRestriction.substring(SmartsheetConstants.FOLDER_RESTRICTION_PREFIX.length());
+            sheets = getRestrictedHome(sheetRestriction, priority -> new RestrictedHomeLoader(restClient, priority).loadFolder(folderId)).getFolderSheets(folderId);
         } else {
             // Get all sheets
-            sheets = home.getAllSheets();
+            sheets = getHome().getAllSheets();
         }
 
         return sheets;
     }
 
+    /**
+     * Returns the sheets whose name contains the searched text, sorted by name, and at most smartsheet.sheetSearch.maxResults (default 100) of them.
+     *
+     * When sheets are restricted to a workspace or folder, we filter the (already small) restricted sheets list;
+     * otherwise we use Smartsheet search API, which does the filtering on Smartsheet side.
+     * Search results don't tell where the sheets are, so their path is taken from the (cached) home content, in order to display them
+     * the same way as in the full sheets list. Returned list must not be modified, as it's cached.
+     *
+     * @param sheetRestriction w_workspace_id or f_folder_id or null/empty if you want to search all sheets.
+     */
+    public List<SmartsheetSheet> searchSheets(String search, String sheetRestriction) {
+
+        if (!StringUtils.isBlank(sheetRestriction)) {
+            String lowerCaseSearch = search.toLowerCase();
+            return getAllSheets(sheetRestriction).stream()
+                    .filter(sheet -> sheet.name != null && sheet.name.toLowerCase().contains(lowerCaseSearch))
+                    .sorted((o1, o2) -> o1.getFullName().compareToIgnoreCase(o2.getFullName()))
+                    .limit(SHEET_SEARCH_MAX_RESULTS)
+                    .collect(Collectors.toList());
+        }
+
+        String url = SmartsheetConstants.API_SEARCH + "?scopes=sheetNames&query=" + urlEncode(search);
+
+        String key = restClient.getIntegrationToken() + " " + url;
+
+        return sheetSearchByTokenAndQuery.get(key, () -> SingleFlight.execute(key, () -> {
+
+            ClientResponse response = restClient.sendGet(url);
+
+            SheetSearchResponse searchResponse = new Gson().fromJson(response.getEntity(String.class), SheetSearchResponse.class);
+
+            List<SmartsheetSheet> sheets = new ArrayList<>();
+
+            if (searchResponse.results != null) {
+                HomeIndex homeIndex = getHome().getIndex();
+                Set<String> sheetIds = new HashSet<>();
+                for (SheetSearchResponse.SearchResult result : searchResponse.results) {
+                    // Search API returns one result per match, so the same sheet can be returned more than once.
+                    if (SheetSearchResponse.SHEET_OBJECT_TYPE.equals(result.objectType) && sheetIds.add(result.objectId)) {
+                        SmartsheetSheet sheet = homeIndex.getSheet(result.objectId);
+                        if (sheet == null) {
+                            // Not in home content (yet), so without path.
+                            sheet = new SmartsheetSheet();
+                            sheet.id = result.objectId;
+                            sheet.name = result.text;
+                        }
+                        sheets.add(sheet);
+                    }
+                }
+            }
+
+            sheets.sort((o1, o2) -> o1.getFullName().compareToIgnoreCase(o2.getFullName()));
+
+            return Collections.unmodifiableList(sheets.size() > SHEET_SEARCH_MAX_RESULTS ? new ArrayList<>(sheets.subList(0, SHEET_SEARCH_MAX_RESULTS)) : sheets);
+        }));
+    }
+
+    private String urlEncode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Restricted home contents are cached and shared like the whole home content, with a key made of the integration token and the restriction.
+     *
+     * @param loader loads the restricted home content, sending its requests with the passed priority.
+     */
+    private HomeResponse getRestrictedHome(String sheetRestriction, Function<SmartsheetRateLimiter.Priority, HomeResponse> loader) {
+        String key = restClient.getIntegrationToken() + " " + sheetRestriction;
+
+        return homeByToken.get(key, () -> SingleFlight.execute(key, () -> loader.apply(SmartsheetRateLimiter.Priority.INTERACTIVE)),
+                () -> SingleFlight.execute(key, () -> loader.apply(SmartsheetRateLimiter.Priority.BULK)));
+    }
+
+    /**
+     * The parsed content of /home is cached per integration token, so that all navigation calls (sheets, folders, workspaces) share it.
+     * Concurrent calls with the same integration token share the same request & result, which must therefore not be modified.
+     */
     public HomeResponse getHome() {
 
+        String key = restClient.getIntegrationToken();
+
+        // Background refreshes are sent with the bulk priority, as nobody is waiting for them.
+        return homeByToken.get(key, () -> loadHome(SmartsheetRateLimiter.Priority.INTERACTIVE), () -> loadHome(SmartsheetRateLimiter.Priority.BULK));
+    }
+
+    private HomeResponse loadHome(SmartsheetRateLimiter.Priority priority) {
+
         String url = SmartsheetConstants.API_HOME + "?includeAll=true";
 
-        ClientResponse response = restClient.sendGet(url);
+        return SingleFlight.execute(restClient.getIntegrationToken() + " " + url, () -> {
 
-        HomeResponse responseObject = new Gson().fromJson(response.getEntity(String.class), HomeResponse.class);
+            ClientResponse response = restClient.sendGet(url, priority);
 
-        return responseObject;
+            try (InputStream in = response.getEntity(InputStream.class)) {
+                return new HomeParser().parseHome(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Error when reading Smartsheet home content", e);
+            }
+        });
     }
 
     /**
@@ -73,51 +212,395 @@ public class SmartsheetService {
      * It will NOT include any row information, only the columns.
      */
     public SmartsheetSheet getSmartsheetSheetColumns(String sheetId) {
-        if (!basicSheetInfoById.containsKey(sheetId)) {
+
+        return basicSheetInfoByTokenAndId.get(restClient.getIntegrationToken() + " " + sheetId, () -> {
 
             // We add rowIds=1 at the end to not retrieve any row info since we only need the column definitions here.
             // And we cannot use the /summary API as it's not available in entry-level Smartsheet subscription.
-            String url = SmartsheetConstants.API_GET_SINGLE_SHEET + sheetId + "?rowIds=1";
+            // level=1 gets multi-contact columns with their real MULTI_CONTACT_LIST type rather than as TEXT_NUMBER.
+            String url = SmartsheetConstants.API_GET_SINGLE_SHEET + sheetId + "?rowIds=1&level=1";
 
-            ClientResponse response = restClient.sendGet(url);
+            SmartsheetSheet sheet = SingleFlight.execute(restClient.getIntegrationToken() + " " + url, () -> {
+                ClientResponse response = restClient.sendGet(url);
+                return new Gson().fromJson(response.getEntity(String.class), SmartsheetSheet.class);
+            });
+
+            if (logger.isDebugEnabled()) {
+                logger.debug(basicSheetInfoByTokenAndId.toString());
+            }
+
+            return sheet;
+        });
+    }
 
-            SmartsheetSheet sheet = new Gson().fromJson(response.getEntity(String.class), SmartsheetSheet.class);
 
-            basicSheetInfoById.put(sheetId, sheet);
+    /** Returns all the info of the sheet, including all non-blank rows. Not cached, since it's only called upon work plan sync. */
+    public SmartsheetSheet getSmartsheetSheet(String sheetId) {
+        return getSmartsheetSheet(sheetId, null);
+    }
+
+    /**
+     * Returns the sheet with all its non-blank rows, but only with the passed columns and their cells.
+     * Only these columns are requested to Smartsheet, and attachments, discussions & other extras are not retrieved.
+     * The response is parsed as a stream, so blank rows are never all held in memory.
+     *
+     * Concurrent calls for the same sheet & columns with the same integration token share the same requests & result.
+     *
+     * @param columnIds the columns to retrieve, or null to retrieve everything in the sheet.
+     */
+    public SmartsheetSheet getSmartsheetSheet(String sheetId, Set<String> columnIds) {
+        String url = getSheetUrl(sheetId, columnIds);
+
+        return SingleFlight.execute(getSingleFlightKey(url), () -> readAllRows(url, sheetId, columnIds, RowsReader::new).getSheetWithRows());
+    }
+
+    /**
+     * Returns the values of the mapped columns of all the rows of the sheet (blank rows included), only requesting the mapped columns to Smartsheet.
+     * Tries to avoid downloading the whole sheet again if it was already retrieved before with the same mapping:
+     * <ul>
+     *     <li>If the sheet version didn't change since it was last retrieved, returns the previously retrieved sheet,</li>
+     *     <li>If it did change, only the rows modified since then are retrieved and merged with the previously retrieved rows,
+     *     unless rows were added, deleted or moved, in which case all the rows are retrieved again.</li>
+     * </ul>
+     *
+     * Cells of multi-contact columns get the emails of all their contacts as value (separated by commas). Smartsheet only returns them as object values,
+     * which makes the payload bigger, so they're only requested when a mapped column is a multi-contact column, as told by the columns returned with the sheet.
+     *
+     * Concurrent calls for the same sheet & mapping with the same integration token share the same requests.
+     * The returned sheet is immutable and may be shared with other callers.
+     *
+     * @param mapping the work plan configuration, with the column mapped to each task field.
+     */
+    public ColumnarSheet getLatestColumnarSheet(String sheetId, ValueSet mapping) {
+
+        Set<String> columnIds = ColumnMappingPlan.getMappedColumnIds(mapping);
+
+        // Columnar values depend on the task field each column is mapped to.
+        String key = getColumnarSheetUrl(sheetId, columnIds, false) + " " + ColumnMappingPlan.getMappingKey(mapping);
+
+        return SingleFlight.execute(getSingleFlightKey(key), () -> retrieveLatestColumnarSheet(key, sheetId, columnIds, mapping));
+    }
+
+    private ColumnarSheet retrieveLatestColumnarSheet(String key, String sheetId, Set<String> columnIds, ValueSet mapping) {
+
+        SheetSnapshotCache.SheetSnapshot snapshot = SheetSnapshotCache.get(key);
+
+        if (snapshot != null) {
+            if (snapshot.getVersion() == getSheetVersion(sheetId)) {
+                return snapshot.sheet;
+            }
+
+            if (DELTA_SYNC && snapshot.modifiedAt != null) {
+                String url = getColumnarSheetUrl(sheetId, columnIds, hasMultiContactColumn(snapshot.columnTypesById));
+                snapshot = getModifiedSnapshot(url, sheetId, columnIds, mapping, snapshot);
+            } else {
+                snapshot = null;
+            }
+        }
+
+        if (snapshot == null) {
+            boolean includeMultiContacts = hasCachedMultiContactColumn(sheetId, columnIds);
+            String url = getColumnarSheetUrl(sheetId, columnIds, includeMultiContacts);
+            snapshot = readAllRows(url, sheetId, columnIds, () -> new ColumnarSheetReader(mapping)).toSnapshot();
+
+            if (!includeMultiContacts && hasMultiContactColumn(snapshot.columnTypesById)) {
+                // Only known once the columns are retrieved. Next syncs will ask for the contacts right away, as long as the columns don't change.
+                String multiContactsUrl = getColumnarSheetUrl(sheetId, columnIds, true);
+                snapshot = readAllRows(multiContactsUrl, sheetId, columnIds, () -> new ColumnarSheetReader(mapping)).toSnapshot();
+            }
         }
 
-        return basicSheetInfoById.get(sheetId);
+        SheetSnapshotCache.put(key, snapshot);
+
+        return snapshot.sheet;
     }
 
+    /**
+     * @return true if one of the columns is a multi-contact column according to the columns cache, which is filled by the mapping page.
+     * No request is sent if the columns are not in cache.
+     */
+    private boolean hasCachedMultiContactColumn(String sheetId, Set<String> columnIds) {
+        SmartsheetSheet sheet = basicSheetInfoByTokenAndId.getIfPresent(restClient.getIntegrationToken() + " " + sheetId);
+        if (sheet == null || sheet.columns == null) {
+            return false;
+        }
+        return Arrays.stream(sheet.columns).anyMatch(column -> columnIds.contains(column.id) && SmartsheetConstants.MULTI_CONTACT_LIST_TYPE.equals(column.type));
+    }
 
-    /** Returns all the info of the sheet, including all rows. Not cached, since it's only called upon work plan sync. */
-    public SmartsheetSheet getSmartsheetSheet(String sheetId) {
+    private static boolean hasMultiContactColumn(Map<String, String> columnTypesById) {
+        return columnTypesById.containsValue(SmartsheetConstants.MULTI_CONTACT_LIST_TYPE);
+    }
+
+    /**
+     * Only retrieves the rows modified since the previous snapshot was taken (minus a safety margin, since modification times are rounded to the second),
+     * and merges them into a new snapshot.
+     *
+     * This is only possible when the rows structure didn't change: if any row was added, deleted, moved, indented or outdented, rows & parents
+     * of the previous snapshot can't be trusted anymore, so null is returned and the whole sheet must be retrieved again.
+     * Rows only need to be compared to the previous snapshot when they're modified, since moving or re-parenting a row modifies it,
+     * and a deleted row changes the sheet total row count. The same goes if the type of a retrieved column changed.
+     *
+     * @return the merged snapshot, or null if the whole sheet must be retrieved again.
+     */
+    private SheetSnapshotCache.SheetSnapshot getModifiedSnapshot(String url, String sheetId, Set<String> columnIds, ValueSet mapping, SheetSnapshotCache.SheetSnapshot previous) {
+
+        String rowsModifiedSince = getRowsModifiedSince(previous.modifiedAt);
+        if (rowsModifiedSince == null) {
+            return null;
+        }
+
+        String modifiedRowsUrl = url + (url.contains("?") ? "&" : "?") + "rowsModifiedSince=" + rowsModifiedSince;
+
+        ModifiedRowsReader modifiedRowsReader = readSheet(modifiedRowsUrl, sheetId, columnIds, new ModifiedRowsReader(mapping, previous.sheet));
+        SmartsheetSheet sheet = modifiedRowsReader.sheet;
+
+        if (modifiedRowsReader.isRowsStructureChanged || sheet.totalRowCount == null || sheet.totalRowCount.intValue() != previous.sheet.getRowCount()
+                || !getColumnTypesById(sheet).equals(previous.columnTypesById)) {
+            logger.debug("Rows or columns of Smartsheet sheet " + sheetId + " were added, deleted or moved, all its rows will be retrieved again");
+            return null;
+        }
 
-        String url = SmartsheetConstants.API_GET_SINGLE_SHEET + sheetId + "?includeAll=true";
+        ColumnarSheet modifiedRows = modifiedRowsReader.build();
+        LongIntHashMap modifiedRowIndexes = new LongIntHashMap(modifiedRows.getRowCount());
+        for (int i = 0; i < modifiedRows.getRowCount(); i++) {
+            modifiedRowIndexes.put(modifiedRows.getRowId(i), i);
+        }
+
+        // Rows keep their previous position, with the values of the modified rows.
+        ColumnarSheet.Builder builder = new ColumnarSheet.Builder(new ColumnMappingPlan(sheet, mapping), previous.sheet.getRowCount());
+        for (int i = 0; i < previous.sheet.getRowCount(); i++) {
+            int modifiedIndex = modifiedRowIndexes.get(previous.sheet.getRowId(i));
+            if (modifiedIndex == LongIntHashMap.NO_VALUE) {
+                builder.addRow(previous.sheet, i);
+            } else {
+                builder.addRow(modifiedRows, modifiedIndex);
+            }
+        }
+
+        return new SheetSnapshotCache.SheetSnapshot(builder.build(), sheet.version, sheet.modifiedAt, getColumnTypesById(sheet));
+    }
+
+    /**
+     * @param modifiedAt modification date of the previous snapshot of the sheet, as returned by Smartsheet.
+     * @return the URL encoded value of the rowsModifiedSince parameter, or null if the modification date can't be read.
+     */
+    private String getRowsModifiedSince(String modifiedAt) {
+        OffsetDateTime since;
+        try {
+            since = OffsetDateTime.parse(modifiedAt).minusSeconds(DELTA_SYNC_MARGIN_SECONDS);
+        } catch (DateTimeParseException e) {
+            logger.warn("Unexpected Smartsheet sheet modification date " + modifiedAt + ", all its rows will be retrieved");
+            return null;
+        }
+        // Offset may contain a '+', which must be encoded to not be read as a space.
+        return urlEncode(since.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+    }
+
+    /**
+     * @return the current version of the sheet, which is incremented every time the sheet is modified.
+     */
+    public long getSheetVersion(String sheetId) {
+
+        String url = SmartsheetConstants.API_GET_SINGLE_SHEET + sheetId + "/version";
 
         ClientResponse response = restClient.sendGet(url);
 
-        SmartsheetSheet sheet = new Gson().fromJson(response.getEntity(String.class), SmartsheetSheet.class);
+        SmartsheetSheet sheetVersion = new Gson().fromJson(response.getEntity(String.class), SmartsheetSheet.class);
 
-        return sheet;
+        return sheetVersion.version == null ? -1L : sheetVersion.version.longValue();
     }
 
-    public synchronized void refreshRestConfigIfNeeded(ValueSet config) {
-        String currentIntegrationToken = restClient.getIntegrationToken();
-        String configIntegrationToken = SmartsheetServiceProvider.getIntegrationToken(config);
+    /**
+     * Receives the content of a sheet while it's being read. A new reader is used if the sheet has to be read again.
+     */
+    private abstract static class SheetReader {
+        // The sheet without its rows, once read.
+        SmartsheetSheet sheet;
 
-        if (!currentIntegrationToken.equals(configIntegrationToken)) {
-            // We should use a different Integration Token - Let's reset the REST client and clear all caches.
-            SmartsheetRestConfig restConfig = this.restClient.getSmartsheetRestConfig();
-            restConfig.setAuthToken(configIntegrationToken);
-            this.restClient = new SmartsheetRestClient(restConfig);
-            this.basicSheetInfoById.clear();
+        void readHeader(SmartsheetSheet header) {
         }
+
+        abstract void readRow(SmartsheetSheet.SmartsheetRow row);
+
+        abstract void readBlankRow(SmartsheetSheet.SmartsheetRow row);
     }
 
-    public List<HomeResponse.Folder> getAllFolders() {
+    /**
+     * Keeps the non-blank rows as they are.
+     */
+    private static class RowsReader extends SheetReader {
+        private final List<SmartsheetSheet.SmartsheetRow> rows = new ArrayList<>();
+
+        @Override
+        void readRow(SmartsheetSheet.SmartsheetRow row) {
+            rows.add(row);
+        }
+
+        @Override
+        void readBlankRow(SmartsheetSheet.SmartsheetRow row) {
+        }
+
+        SmartsheetSheet getSheetWithRows() {
+            sheet.rows = rows.toArray(new SmartsheetSheet.SmartsheetRow[rows.size()]);
+            return sheet;
+        }
+    }
+
+    /**
+     * Converts the rows to columnar values as soon as they're read, so that parsed rows & cells are never all held in memory.
+     */
+    private static class ColumnarSheetReader extends SheetReader {
+        private final ValueSet mapping;
+        private ColumnarSheet.Builder builder;
+
+        ColumnarSheetReader(ValueSet mapping) {
+            this.mapping = mapping;
+        }
+
+        @Override
+        void readHeader(SmartsheetSheet header) {
+            builder = new ColumnarSheet.Builder(new ColumnMappingPlan(header, mapping), header.totalRowCount == null ? 0 : header.totalRowCount);
+        }
+
+        @Override
+        void readRow(SmartsheetSheet.SmartsheetRow row) {
+            builder.addRow(row);
+        }
+
+        @Override
+        void readBlankRow(SmartsheetSheet.SmartsheetRow row) {
+            builder.addRow(row);
+        }
+
+        ColumnarSheet build() {
+            if (builder == null) {
+                // Sheet without any row.
+                readHeader(sheet);
+            }
+            return builder.build();
+        }
+
+        SheetSnapshotCache.SheetSnapshot toSnapshot() {
+            return new SheetSnapshotCache.SheetSnapshot(build(), sheet.version, sheet.modifiedAt, getColumnTypesById(sheet));
+        }
+    }
 
-        List<HomeResponse.Folder> folders = new ArrayList<>();
+    /**
+     * Reads the rows modified since a previous snapshot, and checks that each of them is still at the same position and under the same parent.
+     */
+    private static class ModifiedRowsReader extends ColumnarSheetReader {
+        private final ColumnarSheet previous;
+        private final LongIntHashMap previousRowIndexes;
+        private boolean isRowsStructureChanged = false;
+
+        ModifiedRowsReader(ValueSet mapping, ColumnarSheet previous) {
+            super(mapping);
+            this.previous = previous;
+            previousRowIndexes = new LongIntHashMap(previous.getRowCount());
+            for (int i = 0; i < previous.getRowCount(); i++) {
+                previousRowIndexes.put(previous.getRowId(i), i);
+            }
+        }
+
+        @Override
+        void readRow(SmartsheetSheet.SmartsheetRow row) {
+            checkRowPosition(row);
+            super.readRow(row);
+        }
+
+        @Override
+        void readBlankRow(SmartsheetSheet.SmartsheetRow row) {
+            checkRowPosition(row);
+            super.readBlankRow(row);
+        }
+
+        private void checkRowPosition(SmartsheetSheet.SmartsheetRow row) {
+            int previousIndex = previousRowIndexes.get(row.id);
+            if (previousIndex == LongIntHashMap.NO_VALUE || row.rowNumber == null || row.rowNumber.intValue() != previousIndex + 1
+                    || row.parentId != previous.getParentId(previousIndex)) {
+                isRowsStructureChanged = true;
+            }
+        }
+    }
+
+    private static Map<String, String> getColumnTypesById(SmartsheetSheet sheet) {
+        Map<String, String> columnTypesById = new HashMap<>();
+        if (sheet.columns != null) {
+            for (SmartsheetSheet.SmartsheetColumn column : sheet.columns) {
+                columnTypesById.put(column.id, column.type);
+            }
+        }
+        return columnTypesById;
+    }
+
+    /**
+     * Reads all the rows of the sheet, page by page if paging is enabled.
+     * If the sheet is modified while its pages are downloaded, the rows read so far are dropped and the sheet is read again in a single request,
+     * so that the returned rows are always consistent with each other.
+     */
+    private <R extends SheetReader> R readAllRows(String url, String sheetId, Set<String> columnIds, Supplier<R> readers) {
+        if (PAGED_DOWNLOAD) {
+            R reader = readers.get();
+            try {
+                reader.sheet = new SheetPageDownloader(restClient, columnIds).download(url, sheetId, reader::readHeader, reader::readRow, reader::readBlankRow);
+                return reader;
+            } catch (SheetPageDownloader.SheetModifiedException e) {
+                logger.warn(e.getMessage() + ", retrieving it again in a single request");
+            }
+        }
+
+        return readSheet(url, sheetId, columnIds, readers.get());
+    }
+
+    private <R extends SheetReader> R readSheet(String url, String sheetId, Set<String> columnIds, R reader) {
+
+        ClientResponse response = restClient.sendGet(url, SmartsheetRateLimiter.Priority.BULK);
+
+        try (InputStream in = response.getEntity(InputStream.class)) {
+            reader.sheet = new SmartsheetSheetParser(columnIds).parse(in, reader::readHeader, reader::readRow, reader::readBlankRow);
+            return reader;
+        } catch (IOException e) {
+            throw new RuntimeException("Error when reading Smartsheet sheet " + sheetId, e);
+        }
+    }
+
+    private String getSingleFlightKey(String url) {
+        return restClient.getIntegrationToken() + " " + url;
+    }
+
+    private String getSheetUrl(String sheetId, Set<String> columnIds) {
+        if (columnIds == null) {
+            return SmartsheetConstants.API_GET_SINGLE_SHEET + sheetId + "?includeAll=true";
+        }
+
+        String url = SmartsheetConstants.API_GET_SINGLE_SHEET + sheetId;
+
+        if (!columnIds.isEmpty()) {
+            // Sorted so that the same mapping always results in the same URL.
+            url += "?columnIds=" + String.join(",", new TreeSet<>(columnIds));
+        }
+
+        return url;
+    }
+
+    /**
+     * level=1 gets multi-contact columns with their real MULTI_CONTACT_LIST type rather than as TEXT_NUMBER.
+     *
+     * @param includeMultiContacts whether to include the object values, which hold the contacts of multi-contact cells.
+     */
+    private String getColumnarSheetUrl(String sheetId, Set<String> columnIds, boolean includeMultiContacts) {
+        String url = getSheetUrl(sheetId, columnIds);
+
+        url += (url.contains("?") ? "&" : "?") + "level=1";
+
+        if (includeMultiContacts) {
+            url += "&include=objectValue";
+        }
+
+        return url;
+    }
+
+    public List<HomeResponse.Folder> getAllFolders() {
 
         HomeResponse home = getHome();
 
@@ -129,8 +612,8 @@ public class SmartsheetService {
 
         HomeResponse home = getHome();
 
-        if (home != null && home.workspaces != null) {
-            workspaces.addAll(Arrays.asList(home.workspaces));
+        if (home != null) {
+            workspaces.addAll(home.getIndex().getWorkspaces());
         }
 
         return workspaces;
@@ -0,0 +1,291 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.LongIntHashMap;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.SmartsheetSheet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Streaming parser for the JSON payload of a single sheet (GET /sheets/{id}).
+ *
+ * Rows are parsed one at a time straight from the HTTP response stream, without building the whole payload as a String first.
+ * Blank rows are dropped, and only the cells of the requested columns are kept, so the memory used only depends
+ * on the number of mapped cells and not on the size of the sheet.
+ */
+class SmartsheetSheetParser {
+
+    private static final String MULTI_CONTACT_OBJECT_TYPE = "MULTI_CONTACT";
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Columns to keep cells for, or null to keep all the cells.
+     */
+    private final LongIntHashMap keptColumnIds;
+
+    SmartsheetSheetParser(Set<String> keptColumnIds) {
+        if (keptColumnIds == null) {
+            this.keptColumnIds = null;
+        } else {
+            this.keptColumnIds = new LongIntHashMap(keptColumnIds.size());
+            for (String columnId : keptColumnIds) {
+                this.keptColumnIds.put(Long.parseLong(columnId), 0);
+            }
+        }
+    }
+
+    /**
+     * Parses the sheet and passes each non-blank row to rowConsumer as soon as it's read, and each blank row (without any cell) to blankRowConsumer (if not null).
+     *
+     * @param headerConsumer if not null, gets the sheet with the properties & columns read so far just before the first row is read
+     *                       (Smartsheet sends the columns before the rows). Not called if the payload has no rows.
+     * @return the sheet, without its rows.
+     */
+    SmartsheetSheet parse(InputStream in, Consumer<SmartsheetSheet> headerConsumer, Consumer<SmartsheetSheet.SmartsheetRow> rowConsumer, Consumer<SmartsheetSheet.SmartsheetRow> blankRowConsumer) throws IOException {
+
+        SmartsheetSheet sheet = new SmartsheetSheet();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "id":
+                        sheet.id = reader.nextString();
+                        break;
+                    case "name":
+                        sheet.name = reader.nextString();
+                        break;
+                    case "createdAt":
+                        sheet.createdAt = reader.nextString();
+                        break;
+                    case "modifiedAt":
+                        sheet.modifiedAt = reader.nextString();
+                        break;
+                    case "version":
+                        sheet.version = reader.nextLong();
+                        break;
+                    case "totalRowCount":
+                        sheet.totalRowCount = reader.nextInt();
+                        break;
+                    case "accessLevel":
+                        sheet.accessLevel = reader.nextString();
+                        break;
+                    case "permalink":
+                        sheet.permalink = reader.nextString();
+                        break;
+                    case "columns":
+                        sheet.columns = gson.fromJson(reader, SmartsheetSheet.SmartsheetColumn[].class);
+                        break;
+                    case "rows":
+                        if (headerConsumer != null) {
+                            headerConsumer.accept(sheet);
+                        }
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            SmartsheetSheet.SmartsheetRow row = readRow(sheet, reader);
+                            if (row.cells != null) {
+                                rowConsumer.accept(row);
+                            } else if (blankRowConsumer != null) {
+                                blankRowConsumer.accept(row);
+                            }
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        return sheet;
+    }
+
+    /**
+     * @return the row, with null cells if the row is blank (i.e. has no value in any column, mapped or not).
+     */
+    private SmartsheetSheet.SmartsheetRow readRow(SmartsheetSheet sheet, JsonReader reader) throws IOException {
+        SmartsheetSheet.SmartsheetRow row = sheet.new SmartsheetRow();
+        List<SmartsheetSheet.SmartsheetRow.SmartsheetCell> cells = new ArrayList<>();
+        boolean hasValue = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    row.id = reader.nextLong();
+                    break;
+                case "parentId":
+                    row.parentId = reader.nextLong();
+                    break;
+                case "rowNumber":
+                    row.rowNumber = reader.nextInt();
+                    break;
+                case "createdAt":
+                    row.createdAt = reader.nextString();
+                    break;
+                case "modifiedAt":
+                    row.modifiedAt = reader.nextString();
+                    break;
+                case "cells":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        SmartsheetSheet.SmartsheetRow.SmartsheetCell cell = readCell(row, reader);
+                        hasValue |= cell.value != null;
+                        if (keptColumnIds == null || keptColumnIds.containsKey(cell.columnId)) {
+                            cells.add(cell);
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasValue) {
+            return row;
+        }
+
+        row.cells = cells.toArray(new SmartsheetSheet.SmartsheetRow.SmartsheetCell[cells.size()]);
+        return row;
+    }
+
+    private SmartsheetSheet.SmartsheetRow.SmartsheetCell readCell(SmartsheetSheet.SmartsheetRow row, JsonReader reader) throws IOException {
+        SmartsheetSheet.SmartsheetRow.SmartsheetCell cell = row.new SmartsheetCell();
+        String contacts = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "columnId":
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        cell.columnId = reader.nextLong();
+                    }
+                    break;
+                case "value":
+                    cell.value = readScalarAsString(reader);
+                    break;
+                case "displayValue":
+                    cell.displayValue = readScalarAsString(reader);
+                    break;
+                case "objectValue":
+                    contacts = readMultiContactEmails(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Multi-contact cells have no value, only their display names & the contacts in objectValue.
+        if (cell.value == null && contacts != null) {
+            cell.value = contacts;
+        }
+
+        return cell;
+    }
+
+    /**
+     * @return the emails of the contacts of a MULTI_CONTACT object value separated by commas, or null for any other object value.
+     */
+    private String readMultiContactEmails(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+
+        String objectType = null;
+        List<String> emails = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("objectType".equals(name)) {
+                objectType = readScalarAsString(reader);
+            } else if ("values".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String email = readContactEmail(reader);
+                    if (email != null) {
+                        emails.add(email);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return MULTI_CONTACT_OBJECT_TYPE.equals(objectType) && !emails.isEmpty() ? String.join(", ", emails) : null;
+    }
+
+    private String readContactEmail(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+
+        String email = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("email".equals(reader.nextName())) {
+                email = readScalarAsString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return email;
+    }
+
+    /**
+     * Same conversion as Gson does when deserializing a JSON scalar into a String field. Objects & arrays are ignored.
+     */
+    private String readScalarAsString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case NULL:
+                reader.nextNull();
+                return null;
+            case BOOLEAN:
+                return Boolean.toString(reader.nextBoolean());
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * © Copyright 2019 - 2020 Micro Focus or one of its affiliates.
+ */
+
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import org.apache.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe cache where entries expire after a given time to live, and the least recently used entries are evicted
+ * once the max number of entries is reached. Keeps hit/miss/eviction statistics.
+ *
+ * Values are loaded outside of the cache lock, so a slow load doesn't block other keys.
+ * Cached values are shared between all callers and must be treated as read-only.
+ *
+ * If a refresh-ahead delay and executor are provided, an entry read when it's older than that delay is still returned,
+ * but is also reloaded in the background so that callers don't have to wait for the reload once it expires.
+ */
+class TtlCache<K, V> {
+
+    private final static Logger logger = Logger.getLogger(TtlCache.class);
+
+    private final String name;
+
+    private final long ttlNanos;
+
+    private final int maxEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    private final long refreshAfterNanos;
+
+    private final Executor refreshExecutor;
+
+    private final Set<K> keysBeingRefreshed = ConcurrentHashMap.newKeySet();
+
+    private static class CacheEntry<V> {
+        final V value;
+        final long loadedAtNanos;
+
+        CacheEntry(V value, long loadedAtNanos) {
+            this.value = value;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+    }
+
+    TtlCache(String name, long ttl, TimeUnit ttlUnit, int maxEntries) {
+        this(name, ttl, ttlUnit, maxEntries, 0L, null);
+    }
+
+    /**
+     * @param refreshAfter entries read when older than this are reloaded in the background with refreshExecutor. Use 0 to disable refresh-ahead.
+     */
+    TtlCache(String name, long ttl, TimeUnit ttlUnit, int maxEntries, long refreshAfter, Executor refreshExecutor) {
+        this.name = name;
+        this.ttlNanos = ttlUnit.toNanos(ttl);
+        this.refreshAfterNanos = ttlUnit.toNanos(refreshAfter);
+        this.refreshExecutor = refreshExecutor;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > TtlCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value if present and not expired, or the value returned by loader otherwise, which is then cached.
+     */
+    V get(K key, Supplier<V> loader) {
+        return get(key, loader, loader);
+    }
+
+    /**
+     * @param backgroundLoader used instead of loader when the value is refreshed ahead in the background, nobody waiting for it.
+     * @return the cached value if present and not expired, or the value returned by loader otherwise, which is then cached.
+     */
+    V get(K key, Supplier<V> loader, Supplier<V> backgroundLoader) {
+        CacheEntry<V> entry = getEntry(key);
+        if (entry != null) {
+            if (refreshExecutor != null && refreshAfterNanos > 0 && System.nanoTime() - entry.loadedAtNanos >= refreshAfterNanos) {
+                refreshInBackground(key, backgroundLoader);
+            }
+            return entry.value;
+        }
+
+        V value = loader.get();
+
+        if (value != null) {
+            put(key, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * @return the cached value if present and not expired, null otherwise.
+     */
+    V getIfPresent(K key) {
+        CacheEntry<V> entry = getEntry(key);
+        return entry == null ? null : entry.value;
+    }
+
+    private CacheEntry<V> getEntry(K key) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            CacheEntry<V> entry = entries.get(key);
+            if (entry != null && now - entry.loadedAtNanos < ttlNanos) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(K key, V value) {
+        synchronized (entries) {
+            entries.put(key, new CacheEntry<>(value, System.nanoTime()));
+        }
+    }
+
+    private void refreshInBackground(K key, Supplier<V> loader) {
+        if (!keysBeingRefreshed.add(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    V value = loader.get();
+                    if (value != null) {
+                        put(key, value);
+                    }
+                } catch (RuntimeException e) {
+                    // We keep the current entry until it expires, next read will try again.
+                    logger.error("Error when refreshing " + name + " cache entry in background", e);
+                } finally {
+                    keysBeingRefreshed.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            keysBeingRefreshed.remove(key);
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " cache: " + size() + " entries, " + getHitCount() + " hits, " + getMissCount() + " misses, " + getEvictionCount() + " evictions";
+    }
+}
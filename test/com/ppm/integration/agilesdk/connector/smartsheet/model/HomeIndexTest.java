@@ -0,0 +1,145 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Home contents with pathological depth & breadth: the index must be built without overflowing the stack,
+ * and every sheet & folder must get its full path.
+ */
+public class HomeIndexTest {
+
+    private static final int DEPTH = 10000;
+
+    private static final int BREADTH = 10000;
+
+    private static final int SHEETS_PER_FOLDER = 10;
+
+    @Test
+    public void deeplyNestedFolders() {
+        HomeResponse home = new HomeResponse();
+        HomeResponse.Workspace workspace = home.new Workspace();
+        workspace.id = "w";
+        workspace.name = "Workspace";
+        home.workspaces = new HomeResponse.Workspace[] {workspace};
+
+        // Each folder has one sheet and one sub-folder.
+        HomeResponse.Folder[] parentFolders = null;
+        for (int i = 0; i < DEPTH; i++) {
+            HomeResponse.Folder folder = folder(home, "f" + i, "F" + i);
+            folder.sheets = new SmartsheetSheet[] {sheet("s" + i, "S" + i)};
+            if (parentFolders == null) {
+                workspace.folders = new HomeResponse.Folder[] {folder};
+            } else {
+                parentFolders[0].folders = new HomeResponse.Folder[] {folder};
+            }
+            parentFolders = new HomeResponse.Folder[] {folder};
+        }
+
+        HomeIndex index = home.getIndex();
+
+        StringBuilder deepestPath = new StringBuilder();
+        for (int i = 0; i < DEPTH; i++) {
+            deepestPath.append("F").append(i).append("/");
+        }
+
+        List<SmartsheetSheet> allSheets = index.getAllSheets();
+        assertEquals(DEPTH, allSheets.size());
+        assertEquals("[Workspace]/F0/S0", allSheets.get(0).getFullName());
+        assertEquals("[Workspace]/" + deepestPath + "S" + (DEPTH - 1), allSheets.get(DEPTH - 1).getFullName());
+        assertEquals("[Workspace]/" + deepestPath + "S" + (DEPTH - 1), index.getSheet("s" + (DEPTH - 1)).getFullName());
+
+        List<HomeResponse.Folder> allFolders = index.getAllFolders();
+        assertEquals(DEPTH, allFolders.size());
+        assertEquals("[Workspace]/" + deepestPath.substring(0, deepestPath.length() - 1), allFolders.get(DEPTH - 1).getFullName());
+
+        List<SmartsheetSheet> workspaceSheets = index.getWorkspaceSheets("w");
+        assertEquals(DEPTH, workspaceSheets.size());
+        assertEquals(deepestPath + "S" + (DEPTH - 1), workspaceSheets.get(DEPTH - 1).getFullName());
+
+        List<SmartsheetSheet> folderSheets = index.getFolderSheets("f" + (DEPTH - 2));
+        assertEquals(2, folderSheets.size());
+        assertEquals("F" + (DEPTH - 2) + "/S" + (DEPTH - 2), folderSheets.get(0).getFullName());
+        assertEquals("F" + (DEPTH - 2) + "/F" + (DEPTH - 1) + "/S" + (DEPTH - 1), folderSheets.get(1).getFullName());
+    }
+
+    @Test
+    public void manySiblingFoldersAndSheets() {
+        HomeResponse home = new HomeResponse();
+        home.folders = new HomeResponse.Folder[BREADTH];
+        home.sheets = new SmartsheetSheet[BREADTH];
+
+        for (int i = 0; i < BREADTH; i++) {
+            home.sheets[i] = sheet("hs" + i, "HS" + i);
+
+            HomeResponse.Folder folder = folder(home, "f" + i, "F" + i);
+            folder.sheets = new SmartsheetSheet[SHEETS_PER_FOLDER];
+            for (int j = 0; j < SHEETS_PER_FOLDER; j++) {
+                folder.sheets[j] = sheet("s" + i + "_" + j, "S" + j);
+            }
+            home.folders[i] = folder;
+        }
+
+        HomeIndex index = home.getIndex();
+
+        List<SmartsheetSheet> allSheets = index.getAllSheets();
+        assertEquals(BREADTH + BREADTH * SHEETS_PER_FOLDER, allSheets.size());
+        assertEquals("[Home]/HS0", allSheets.get(0).getFullName());
+        assertEquals("[Home]/F0/S0", allSheets.get(BREADTH).getFullName());
+        assertEquals("[Home]/F" + (BREADTH - 1) + "/S" + (SHEETS_PER_FOLDER - 1), allSheets.get(allSheets.size() - 1).getFullName());
+
+        List<HomeResponse.Folder> allFolders = index.getAllFolders();
+        assertEquals(BREADTH, allFolders.size());
+        for (int i = 0; i < BREADTH; i++) {
+            // Folders in Home are listed without any path prefix.
+            assertEquals("F" + i, allFolders.get(i).getFullName());
+        }
+
+        assertEquals("[Home]/F123/S4", index.getSheet("s123_4").getFullName());
+
+        List<SmartsheetSheet> folderSheets = index.getFolderSheets("f" + (BREADTH - 1));
+        assertEquals(SHEETS_PER_FOLDER, folderSheets.size());
+        assertEquals("F" + (BREADTH - 1) + "/S0", folderSheets.get(0).getFullName());
+    }
+
+    @Test
+    public void unknownWorkspaceOrFolderHasNoSheet() {
+        HomeResponse home = new HomeResponse();
+        home.folders = new HomeResponse.Folder[] {folder(home, "f", "F")};
+
+        assertTrue(home.getIndex().getWorkspaceSheets("unknown").isEmpty());
+        assertTrue(home.getIndex().getFolderSheets("unknown").isEmpty());
+        assertNull(home.getIndex().getSheet("unknown"));
+    }
+
+    @Test
+    public void deepPathToString() {
+        HomePath path = HomePath.of("[Home]/");
+        StringBuilder expected = new StringBuilder("[Home]/");
+        for (int i = 0; i < 100000; i++) {
+            path = path.child("F" + i);
+            expected.append("F").append(i).append("/");
+        }
+
+        assertEquals(expected.toString(), path.toString());
+        assertEquals("[Home]/F0/", HomePath.of("[Home]/").child("F0").toString());
+        assertEquals("", HomePath.EMPTY.toString());
+    }
+
+    private static HomeResponse.Folder folder(HomeResponse home, String id, String name) {
+        HomeResponse.Folder folder = home.new Folder();
+        folder.id = id;
+        folder.name = name;
+        return folder;
+    }
+
+    private static SmartsheetSheet sheet(String id, String name) {
+        SmartsheetSheet sheet = new SmartsheetSheet();
+        sheet.id = id;
+        sheet.name = name;
+        return sheet;
+    }
+}
@@ -0,0 +1,122 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Removals must keep every other key reachable, including when the probe sequence of a key wraps around the end of the table.
+ */
+public class LongIntHashMapTest {
+
+    // Capacity of a map created without expected size, as long as it's not more than half full.
+    private static final int CAPACITY = 16;
+
+    @Test
+    public void getPutRemove() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(42L));
+        assertFalse(map.containsKey(42L));
+
+        assertEquals(LongIntHashMap.NO_VALUE, map.put(42L, 1));
+        assertEquals(1, map.put(42L, 2));
+        assertEquals(2, map.get(42L));
+        assertTrue(map.containsKey(42L));
+        assertEquals(1, map.size());
+
+        assertEquals(2, map.remove(42L));
+        assertEquals(LongIntHashMap.NO_VALUE, map.remove(42L));
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(42L));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void removeInProbeChainWrappingAroundTheTable() {
+        // Keys whose probe sequence starts on the last slots, so that colliding keys wrap around to the first slots.
+        List<Long> keys = new ArrayList<>();
+        keys.addAll(keysWithHomeSlot(CAPACITY - 1, 3));
+        keys.addAll(keysWithHomeSlot(CAPACITY - 2, 2));
+        keys.addAll(keysWithHomeSlot(0, 2));
+
+        for (int removed = 0; removed < keys.size(); removed++) {
+            LongIntHashMap map = new LongIntHashMap();
+            for (int i = 0; i < keys.size(); i++) {
+                map.put(keys.get(i), i);
+            }
+
+            assertEquals(removed, map.remove(keys.get(removed)));
+
+            assertEquals(keys.size() - 1, map.size());
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals("key " + i + " after removing key " + removed, i == removed ? LongIntHashMap.NO_VALUE : i, map.get(keys.get(i)));
+            }
+
+            // The freed slot can be used again.
+            assertEquals(LongIntHashMap.NO_VALUE, map.put(keys.get(removed), 100));
+            assertEquals(100, map.get(keys.get(removed)));
+        }
+    }
+
+    @Test
+    public void sameContentAsHashMapAfterRandomOperations() {
+        Random random = new Random(20200101L);
+
+        // Few distinct keys in a small table, so that probe chains often collide & wrap around, then many keys to go through resizes.
+        for (int keyRange : new int[] {7, 1000}) {
+            LongIntHashMap map = new LongIntHashMap();
+            Map<Long, Integer> expected = new HashMap<>();
+
+            for (int operation = 0; operation < 100000; operation++) {
+                long key = 1000000000000000L + random.nextInt(keyRange);
+                if (random.nextBoolean()) {
+                    int value = random.nextInt(Integer.MAX_VALUE);
+                    Integer previous = expected.put(key, value);
+                    assertEquals(previous == null ? LongIntHashMap.NO_VALUE : previous.intValue(), map.put(key, value));
+                } else {
+                    Integer previous = expected.remove(key);
+                    assertEquals(previous == null ? LongIntHashMap.NO_VALUE : previous.intValue(), map.remove(key));
+                }
+                assertEquals(expected.size(), map.size());
+            }
+
+            for (long key = 1000000000000000L; key < 1000000000000000L + keyRange; key++) {
+                Integer value = expected.get(key);
+                assertEquals(value == null ? LongIntHashMap.NO_VALUE : value.intValue(), map.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void resizeKeepsAllKeys() {
+        LongIntHashMap map = new LongIntHashMap(1);
+        for (int i = 0; i < 10000; i++) {
+            map.put(5000000000000000L + i * 7919L, i);
+        }
+
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, map.get(5000000000000000L + i * 7919L));
+        }
+    }
+
+    /**
+     * @return keys whose first probed slot is the given one in a table of CAPACITY slots, using the same hash as the map.
+     */
+    private static List<Long> keysWithHomeSlot(int slot, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1000000000000000L; keys.size() < count; key++) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            if ((((int)(h ^ (h >>> 32))) & (CAPACITY - 1)) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
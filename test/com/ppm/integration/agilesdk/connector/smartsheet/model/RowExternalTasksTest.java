@@ -0,0 +1,209 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import com.ppm.integration.agilesdk.ValueSet;
+import com.ppm.integration.agilesdk.connector.smartsheet.SmartsheetConstants;
+import com.ppm.integration.agilesdk.pm.ExternalTask;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parent rows can be anything Smartsheet returns: blank, missing, the row itself or a cycle. Every task must still end up exactly once in the tree,
+ * and summary tasks must only be rolled up from the values their sub-tasks actually have.
+ */
+public class RowExternalTasksTest {
+
+    private static final long NAME_COLUMN = 101L;
+    private static final long START_COLUMN = 102L;
+    private static final long FINISH_COLUMN = 103L;
+    private static final long ACTUAL_EFFORT_COLUMN = 106L;
+    private static final long SCHEDULED_EFFORT_COLUMN = 107L;
+
+    private final SmartsheetSheet header = header();
+
+    @Test
+    public void parentCyclesAreBrokenAtTopLevel() {
+        ColumnarSheet sheet = sheet(
+                row(1L, 3L, "A"),
+                row(2L, 1L, "B"),
+                row(3L, 2L, "C"),
+                row(4L, 0L, "D"),
+                row(5L, 5L, "Self parent"),
+                row(6L, 999L, "Missing parent"));
+
+        List<ExternalTask> rootTasks = RowExternalTasks.buildHierarchy(sheet, RowExternalTasks.create(sheet, Collections.emptyMap()));
+
+        // Rows without parent task first, then the rows of the cycles, in the rows order.
+        assertEquals(Arrays.asList("D", "Missing parent", "A", "Self parent"), names(rootTasks));
+        assertEquals(Collections.singletonList("B"), names(rootTasks.get(2).getChildren()));
+        assertEquals(Collections.singletonList("C"), names(rootTasks.get(2).getChildren().get(0).getChildren()));
+        assertTrue(rootTasks.get(2).getChildren().get(0).getChildren().get(0).getChildren().isEmpty());
+        assertTrue(rootTasks.get(3).getChildren().isEmpty());
+        assertEquals(6, countTasks(rootTasks));
+    }
+
+    @Test
+    public void blankAncestorsOfNonBlankRowsGetATask() {
+        ColumnarSheet sheet = sheet(
+                blankRow(1L, 0L),
+                blankRow(2L, 1L),
+                row(3L, 2L, "Leaf"),
+                blankRow(4L, 0L),
+                blankRow(5L, 3L));
+
+        List<RowExternalTask> tasks = RowExternalTasks.create(sheet, Collections.emptyMap());
+
+        assertNull(tasks.get(3));
+        assertNull(tasks.get(4));
+
+        List<ExternalTask> rootTasks = RowExternalTasks.buildHierarchy(sheet, tasks);
+
+        assertEquals(Collections.singletonList("?"), names(rootTasks));
+        assertEquals(Collections.singletonList("?"), names(rootTasks.get(0).getChildren()));
+        assertEquals(Collections.singletonList("Leaf"), names(rootTasks.get(0).getChildren().get(0).getChildren()));
+        assertEquals(3, countTasks(rootTasks));
+    }
+
+    @Test
+    public void rollUpOfPartialChildren() {
+        ColumnarSheet sheet = sheet(
+                row(1L, 0L, "Summary", "2020-01-01", "2020-12-31", null, null),
+                row(2L, 1L, "With values", "2020-03-01", "2020-03-31", "4", "10"),
+                row(3L, 1L, "Without values"),
+                row(4L, 1L, "Only a start", "2020-02-01", null, null, "5"));
+
+        List<RowExternalTask> tasks = RowExternalTasks.create(sheet, Collections.emptyMap());
+        List<ExternalTask> rootTasks = RowExternalTasks.buildHierarchy(sheet, tasks);
+        RowExternalTasks.rollUpSummaryTasks(rootTasks, tasks.size());
+
+        ExternalTask summary = rootTasks.get(0);
+        assertEquals(tasks.get(3).getScheduledStart(), summary.getScheduledStart());
+        assertEquals(tasks.get(1).getScheduledFinish(), summary.getScheduledFinish());
+        assertEquals(15d, summary.getActuals().get(0).getScheduledEffort(), 0.001d);
+        assertEquals(4d, summary.getActuals().get(0).getActualEffort(), 0.001d);
+    }
+
+    @Test
+    public void rollUpOfChildrenWithoutValuesKeepsOwnDates() {
+        ColumnarSheet sheet = sheet(
+                row(1L, 0L, "Summary", "2020-01-01", "2020-12-31", null, null),
+                row(2L, 1L, "First"),
+                row(3L, 1L, "Second"));
+
+        List<RowExternalTask> tasks = RowExternalTasks.create(sheet, Collections.emptyMap());
+        List<ExternalTask> rootTasks = RowExternalTasks.buildHierarchy(sheet, tasks);
+
+        Date start = rootTasks.get(0).getScheduledStart();
+        Date finish = rootTasks.get(0).getScheduledFinish();
+
+        RowExternalTasks.rollUpSummaryTasks(rootTasks, tasks.size());
+
+        assertEquals(start, rootTasks.get(0).getScheduledStart());
+        assertEquals(finish, rootTasks.get(0).getScheduledFinish());
+        assertEquals(0d, rootTasks.get(0).getActuals().get(0).getScheduledEffort(), 0.001d);
+    }
+
+    @Test
+    public void rollUpOfDeepChain() {
+        int depth = 100000;
+        SmartsheetSheet.SmartsheetRow[] rows = new SmartsheetSheet.SmartsheetRow[depth];
+        for (int i = 0; i < depth - 1; i++) {
+            rows[i] = row(i + 1, i, "Level " + i);
+        }
+        rows[depth - 1] = row(depth, depth - 1, "Leaf", "2020-06-01", "2020-06-30", "1", "2");
+        ColumnarSheet sheet = sheet(rows);
+
+        List<RowExternalTask> tasks = RowExternalTasks.create(sheet, Collections.emptyMap());
+        List<ExternalTask> rootTasks = RowExternalTasks.buildHierarchy(sheet, tasks);
+        RowExternalTasks.rollUpSummaryTasks(rootTasks, tasks.size());
+
+        assertEquals(1, rootTasks.size());
+        assertEquals(depth, countTasks(rootTasks));
+        assertEquals(tasks.get(depth - 1).getScheduledStart(), rootTasks.get(0).getScheduledStart());
+        assertEquals(tasks.get(depth - 1).getScheduledFinish(), rootTasks.get(0).getScheduledFinish());
+        assertEquals(2d, rootTasks.get(0).getActuals().get(0).getScheduledEffort(), 0.001d);
+    }
+
+    private static List<String> names(List<ExternalTask> tasks) {
+        List<String> names = new ArrayList<>();
+        for (ExternalTask task : tasks) {
+            names.add(task.getName());
+        }
+        return names;
+    }
+
+    private static int countTasks(List<ExternalTask> rootTasks) {
+        int count = 0;
+        List<ExternalTask> toVisit = new ArrayList<>(rootTasks);
+        while (!toVisit.isEmpty()) {
+            ExternalTask task = toVisit.remove(toVisit.size() - 1);
+            count++;
+            toVisit.addAll(task.getChildren());
+        }
+        return count;
+    }
+
+    private ColumnarSheet sheet(SmartsheetSheet.SmartsheetRow... rows) {
+        ValueSet mapping = new ValueSet();
+        mapping.put(SmartsheetConstants.KEY_TMF_TASK_NAME, String.valueOf(NAME_COLUMN));
+        mapping.put(SmartsheetConstants.KEY_TMF_TASK_START_DATE, String.valueOf(START_COLUMN));
+        mapping.put(SmartsheetConstants.KEY_TMF_TASK_FINISH_DATE, String.valueOf(FINISH_COLUMN));
+        mapping.put(SmartsheetConstants.KEY_TMF_TASK_ACTUAL_EFFORT, String.valueOf(ACTUAL_EFFORT_COLUMN));
+        mapping.put(SmartsheetConstants.KEY_TMF_TASK_SCHEDULED_EFFORT, String.valueOf(SCHEDULED_EFFORT_COLUMN));
+
+        ColumnarSheet.Builder builder = new ColumnarSheet.Builder(new ColumnMappingPlan(header, mapping), rows.length);
+        for (SmartsheetSheet.SmartsheetRow row : rows) {
+            builder.addRow(row);
+        }
+        return builder.build();
+    }
+
+    private SmartsheetSheet.SmartsheetRow row(long id, long parentId, String name) {
+        return row(id, parentId, name, null, null, null, null);
+    }
+
+    private SmartsheetSheet.SmartsheetRow row(long id, long parentId, String name, String start, String finish, String actualEffort, String scheduledEffort) {
+        SmartsheetSheet.SmartsheetRow row = blankRow(id, parentId);
+        row.cells = new SmartsheetSheet.SmartsheetRow.SmartsheetCell[] {
+                cell(row, NAME_COLUMN, name),
+                cell(row, START_COLUMN, start),
+                cell(row, FINISH_COLUMN, finish),
+                cell(row, ACTUAL_EFFORT_COLUMN, actualEffort),
+                cell(row, SCHEDULED_EFFORT_COLUMN, scheduledEffort)};
+        return row;
+    }
+
+    private SmartsheetSheet.SmartsheetRow blankRow(long id, long parentId) {
+        SmartsheetSheet.SmartsheetRow row = header.new SmartsheetRow();
+        row.id = id;
+        row.parentId = parentId;
+        return row;
+    }
+
+    private static SmartsheetSheet.SmartsheetRow.SmartsheetCell cell(SmartsheetSheet.SmartsheetRow row, long columnId, String value) {
+        SmartsheetSheet.SmartsheetRow.SmartsheetCell cell = row.new SmartsheetCell();
+        cell.columnId = columnId;
+        cell.value = value;
+        cell.displayValue = value;
+        return cell;
+    }
+
+    private static SmartsheetSheet header() {
+        SmartsheetSheet sheet = new SmartsheetSheet();
+        long[] columnIds = {NAME_COLUMN, START_COLUMN, FINISH_COLUMN, ACTUAL_EFFORT_COLUMN, SCHEDULED_EFFORT_COLUMN};
+        sheet.columns = new SmartsheetSheet.SmartsheetColumn[columnIds.length];
+        for (int i = 0; i < columnIds.length; i++) {
+            sheet.columns[i] = sheet.new SmartsheetColumn();
+            sheet.columns[i].id = String.valueOf(columnIds[i]);
+            sheet.columns[i].index = i;
+            sheet.columns[i].type = "TEXT_NUMBER";
+        }
+        return sheet;
+    }
+}
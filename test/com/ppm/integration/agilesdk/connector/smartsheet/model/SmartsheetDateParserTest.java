@@ -0,0 +1,75 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.model;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Each date column type of Smartsheet has its own format; values that are blank or not dates must be ignored rather than fail the sync.
+ */
+public class SmartsheetDateParserTest {
+
+    @Test
+    public void blankValueHasNoDate() {
+        SmartsheetDateParser parser = new SmartsheetDateParser();
+
+        assertEquals(SmartsheetDateParser.NO_DATE, parser.parseEpochMillis(null));
+        assertEquals(SmartsheetDateParser.NO_DATE, parser.parseEpochMillis(""));
+        assertEquals(SmartsheetDateParser.NO_DATE, parser.parseEpochMillis("  "));
+        assertNull(SmartsheetDateParser.parse(null));
+        assertNull(SmartsheetDateParser.parse(""));
+    }
+
+    @Test
+    public void invalidValueHasNoDate() {
+        SmartsheetDateParser parser = new SmartsheetDateParser();
+
+        assertEquals(SmartsheetDateParser.NO_DATE, parser.parseEpochMillis("bad-date"));
+        assertEquals(SmartsheetDateParser.NO_DATE, parser.parseEpochMillis("2020-02-30"));
+        assertEquals(SmartsheetDateParser.NO_DATE, parser.parseEpochMillis("2020-01-01T25:00:00"));
+        assertNull(SmartsheetDateParser.parse("bad-date"));
+    }
+
+    @Test
+    public void dateIsMidnightInServerTimeZone() {
+        long expected = LocalDate.of(2020, 2, 29).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        assertEquals(expected, new SmartsheetDateParser().parseEpochMillis("2020-02-29"));
+        assertEquals(new Date(expected), SmartsheetDateParser.parse("2020-02-29"));
+    }
+
+    @Test
+    public void abstractDateTimeIsInServerTimeZone() {
+        long expected = LocalDateTime.of(2020, 3, 1, 8, 30).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        assertEquals(expected, new SmartsheetDateParser().parseEpochMillis("2020-03-01T08:30:00"));
+    }
+
+    @Test
+    public void dateTimeWithOffset() {
+        SmartsheetDateParser parser = new SmartsheetDateParser();
+        long utc = OffsetDateTime.parse("2020-03-01T10:00:00Z").toInstant().toEpochMilli();
+
+        assertEquals(utc, parser.parseEpochMillis("2020-03-01T10:00:00Z"));
+        assertEquals(utc, parser.parseEpochMillis("2020-03-01T12:00:00+02:00"));
+        assertEquals(utc, parser.parseEpochMillis("2020-03-01T12:00:00+0200"));
+        assertEquals(utc, parser.parseEpochMillis("2020-03-01T07:00:00-03:00"));
+        assertEquals(new Date(utc), SmartsheetDateParser.parse("2020-03-01T12:00:00+02:00"));
+    }
+
+    @Test
+    public void memoizedValuesAreTheSame() {
+        SmartsheetDateParser parser = new SmartsheetDateParser();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(SmartsheetDateParser.parse("2021-12-31").getTime(), parser.parseEpochMillis("2021-12-31"));
+            assertEquals(SmartsheetDateParser.NO_DATE, parser.parseEpochMillis("bad-date"));
+        }
+    }
+}
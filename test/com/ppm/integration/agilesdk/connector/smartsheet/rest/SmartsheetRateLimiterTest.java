@@ -0,0 +1,45 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.rest;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * A HTTP 429 blocks all the requests of the token until the Retry-After delay is over, and only those.
+ */
+public class SmartsheetRateLimiterTest {
+
+    @Test
+    public void rateLimitedTokenWaitsForRetryAfterDelay() throws InterruptedException {
+        SmartsheetRateLimiter limiter = SmartsheetRateLimiter.forToken(newToken());
+
+        limiter.onRateLimited(500L);
+        // A shorter delay received afterwards doesn't shorten the current one.
+        limiter.onRateLimited(0L);
+
+        long start = System.nanoTime();
+        limiter.acquire(SmartsheetRateLimiter.Priority.BULK);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 450L);
+    }
+
+    @Test
+    public void otherTokensAreNotRateLimited() throws InterruptedException {
+        String token = newToken();
+        SmartsheetRateLimiter.forToken(token).onRateLimited(60000L);
+
+        assertSame(SmartsheetRateLimiter.forToken(token), SmartsheetRateLimiter.forToken(token));
+
+        long start = System.nanoTime();
+        SmartsheetRateLimiter.forToken(newToken()).acquire();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000L);
+    }
+
+    private static String newToken() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.rest;
+
+import org.apache.wink.client.ClientResponse;
+import org.junit.Test;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.*;
+
+/**
+ * Delay before sending again a request rejected with HTTP 429: the Retry-After header when Smartsheet sends it, an exponential delay otherwise.
+ */
+public class SmartsheetRestClientTest {
+
+    @Test
+    public void retryAfterHeaderIsInSeconds() {
+        assertEquals(3000L, SmartsheetRestClient.getRetryAfterMillis(rateLimited(" 3 "), 1));
+        assertEquals(3000L, SmartsheetRestClient.getRetryAfterMillis(rateLimited("3"), 5));
+        assertEquals(0L, SmartsheetRestClient.getRetryAfterMillis(rateLimited("-5"), 1));
+    }
+
+    @Test
+    public void missingOrUnreadableRetryAfterHeaderUsesExponentialDelay() {
+        assertEquals(2000L, SmartsheetRestClient.getRetryAfterMillis(rateLimited(null), 1));
+        assertEquals(4000L, SmartsheetRestClient.getRetryAfterMillis(rateLimited("Wed, 21 Oct 2020 07:28:00 GMT"), 2));
+        assertEquals(60000L, SmartsheetRestClient.getRetryAfterMillis(rateLimited(""), 6));
+        assertEquals(60000L, SmartsheetRestClient.getRetryAfterMillis(rateLimited(null), 100));
+        assertEquals(2000L, SmartsheetRestClient.getRetryAfterMillis(withoutHeaders(), 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ClientResponse rateLimited(String retryAfter) {
+        MultivaluedMap<String, String> headers = (MultivaluedMap<String, String>)Proxy.newProxyInstance(MultivaluedMap.class.getClassLoader(), new Class<?>[] {MultivaluedMap.class},
+                (proxy, method, args) -> {
+                    if ("getFirst".equals(method.getName())) {
+                        return "Retry-After".equals(args[0]) ? retryAfter : null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return response(headers);
+    }
+
+    private static ClientResponse withoutHeaders() {
+        return response(null);
+    }
+
+    private static ClientResponse response(MultivaluedMap<String, String> headers) {
+        return (ClientResponse)Proxy.newProxyInstance(ClientResponse.class.getClassLoader(), new Class<?>[] {ClientResponse.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getStatusCode":
+                    return 429;
+                case "getHeaders":
+                    return headers;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
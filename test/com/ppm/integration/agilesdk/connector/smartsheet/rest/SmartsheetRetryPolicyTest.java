@@ -0,0 +1,84 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.rest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Only transient failures are retried, after a bounded random delay, and only as long as the retry budget allows it.
+ */
+public class SmartsheetRetryPolicyTest {
+
+    @Test
+    public void onlyTransientFailuresAreRetryable() {
+        SmartsheetRetryPolicy policy = new SmartsheetRetryPolicy();
+
+        for (int status : new int[] {500, 502, 503, 504}) {
+            assertTrue("HTTP " + status, policy.isRetryableStatus(status));
+        }
+        // 429 is handled by waiting for the Retry-After delay, not as a failure.
+        for (int status : new int[] {200, 400, 401, 403, 404, 429, 501}) {
+            assertFalse("HTTP " + status, policy.isRetryableStatus(status));
+        }
+
+        assertTrue(policy.isRetryableException(new IOException("Connection reset")));
+        assertTrue(policy.isRetryableException(new RuntimeException(new RuntimeException(new SocketTimeoutException("Read timed out")))));
+        assertFalse(policy.isRetryableException(new IllegalStateException("Not an I/O error")));
+
+        assertTrue(policy.isRetryableVerb("GET"));
+        assertTrue(policy.isRetryableVerb("PUT"));
+        assertFalse(policy.isRetryableVerb("POST"));
+    }
+
+    @Test
+    public void backoffDelayIsWithinBounds() {
+        SmartsheetRetryPolicy policy = new SmartsheetRetryPolicy();
+
+        for (int attempt = 1; attempt <= 100; attempt++) {
+            long maxDelay = Math.min(30000L, 500L << Math.min(attempt - 1, 20));
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.getBackoffDelayMillis(attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= 0L && delay <= maxDelay);
+            }
+        }
+    }
+
+    @Test
+    public void backoffDelayOfHugeBaseDelayDoesNotOverflow() {
+        SmartsheetRetryPolicy policy;
+        System.setProperty("smartsheet.retry.baseDelayMillis", String.valueOf(Long.MAX_VALUE / 4));
+        try {
+            policy = new SmartsheetRetryPolicy();
+        } finally {
+            System.clearProperty("smartsheet.retry.baseDelayMillis");
+        }
+
+        for (int attempt = 1; attempt <= 100; attempt++) {
+            long delay = policy.getBackoffDelayMillis(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= 0L && delay <= 30000L);
+        }
+    }
+
+    @Test
+    public void retriesAreLimitedByAttemptsAndBudget() {
+        SmartsheetRetryPolicy policy = new SmartsheetRetryPolicy();
+
+        assertFalse(policy.tryRetry(4));
+
+        // Initial budget of 10 retries.
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.tryRetry(1));
+        }
+        assertFalse(policy.tryRetry(1));
+
+        // Each success earns 0.2 retry.
+        for (int i = 0; i < 6; i++) {
+            policy.onSuccess();
+        }
+        assertTrue(policy.tryRetry(1));
+        assertFalse(policy.tryRetry(1));
+    }
+}
@@ -0,0 +1,215 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import com.ppm.integration.agilesdk.ValueSet;
+import com.ppm.integration.agilesdk.connector.smartsheet.SmartsheetConstants;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.ColumnMappingPlan;
+import com.ppm.integration.agilesdk.connector.smartsheet.model.ColumnarSheet;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRateLimiter;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRestClient;
+import com.ppm.integration.agilesdk.connector.smartsheet.rest.SmartsheetRestConfig;
+import org.apache.wink.client.ClientResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Once a sheet is cached, only its modified rows are retrieved and merged into the cached rows,
+ * unless rows were added, deleted or moved since, in which case the merged rows can't be trusted and the whole sheet is retrieved again.
+ */
+public class SmartsheetServiceTest {
+
+    private static final long NAME_COLUMN = 101L;
+
+    // Sheets are cached process-wide, so each test uses its own sheet.
+    private static final AtomicLong nextSheetId = new AtomicLong(1000L);
+
+    private final String sheetId = String.valueOf(nextSheetId.incrementAndGet());
+
+    private final FakeRestClient restClient = new FakeRestClient();
+
+    private final SmartsheetService service = new SmartsheetService(restClient);
+
+    @Test
+    public void unchangedVersionReusesCachedSheet() {
+        restClient.sheet = sheet(1, row(1, 0, 1, "A"), row(2, 1, 2, "B"));
+        ColumnarSheet first = service.getLatestColumnarSheet(sheetId, mapping());
+
+        restClient.calls.clear();
+        assertSame(first, service.getLatestColumnarSheet(sheetId, mapping()));
+        assertEquals(1, restClient.calls.size());
+        assertTrue(restClient.calls.get(0).endsWith("/version"));
+    }
+
+    @Test
+    public void modifiedRowsAreMerged() {
+        restClient.sheet = sheet(1, row(1, 0, 1, "A"), row(2, 1, 2, "B"), row(3, 0, 3, "C"), row(4, 3, 4, null));
+        service.getLatestColumnarSheet(sheetId, mapping());
+
+        // Modified rows are the only rows returned, with the total row count of the sheet.
+        restClient.version = 2;
+        restClient.modifiedRows = sheet(2, 4, row(2, 1, 2, "B2"), row(4, 3, 4, "D"));
+        restClient.calls.clear();
+
+        ColumnarSheet sheet = service.getLatestColumnarSheet(sheetId, mapping());
+
+        assertEquals(Arrays.asList("A", "B2", "C", "D"), names(sheet));
+        assertEquals(0, sheet.getParentIndex(1));
+        assertEquals(2, sheet.getParentIndex(3));
+        assertFalse(sheet.isBlank(3));
+        assertEquals(2, restClient.calls.size());
+        assertTrue(restClient.calls.get(1).contains("rowsModifiedSince="));
+    }
+
+    @Test
+    public void movedRowsReloadTheSheet() {
+        restClient.sheet = sheet(1, row(1, 0, 1, "A"), row(2, 0, 2, "B"), row(3, 0, 3, "C"));
+        service.getLatestColumnarSheet(sheetId, mapping());
+
+        restClient.version = 2;
+        restClient.modifiedRows = sheet(2, 3, row(3, 0, 1, "C"));
+        restClient.sheet = sheet(2, row(3, 0, 1, "C"), row(1, 0, 2, "A"), row(2, 0, 3, "B"));
+
+        assertEquals(Arrays.asList("C", "A", "B"), names(service.getLatestColumnarSheet(sheetId, mapping())));
+        assertFullSheetRetrieved();
+    }
+
+    @Test
+    public void reparentedRowsReloadTheSheet() {
+        restClient.sheet = sheet(1, row(1, 0, 1, "A"), row(2, 0, 2, "B"));
+        service.getLatestColumnarSheet(sheetId, mapping());
+
+        restClient.version = 2;
+        restClient.modifiedRows = sheet(2, 2, row(2, 1, 2, "B"));
+        restClient.sheet = sheet(2, row(1, 0, 1, "A"), row(2, 1, 2, "B"));
+
+        ColumnarSheet sheet = service.getLatestColumnarSheet(sheetId, mapping());
+
+        assertEquals(0, sheet.getParentIndex(1));
+        assertFullSheetRetrieved();
+    }
+
+    @Test
+    public void deletedRowsReloadTheSheet() {
+        restClient.sheet = sheet(1, row(1, 0, 1, "A"), row(2, 0, 2, "B"), row(3, 0, 3, "C"));
+        service.getLatestColumnarSheet(sheetId, mapping());
+
+        // Deleting a row doesn't modify any other row, only the total row count tells.
+        restClient.version = 2;
+        restClient.modifiedRows = sheet(2, 2);
+        restClient.sheet = sheet(2, row(1, 0, 1, "A"), row(3, 0, 2, "C"));
+
+        assertEquals(Arrays.asList("A", "C"), names(service.getLatestColumnarSheet(sheetId, mapping())));
+        assertFullSheetRetrieved();
+    }
+
+    @Test
+    public void addedRowsReloadTheSheet() {
+        restClient.sheet = sheet(1, row(1, 0, 1, "A"), row(2, 0, 2, "B"));
+        service.getLatestColumnarSheet(sheetId, mapping());
+
+        // Row count is the same as a row was also deleted.
+        restClient.version = 2;
+        restClient.modifiedRows = sheet(2, 2, row(5, 0, 2, "E"));
+        restClient.sheet = sheet(2, row(1, 0, 1, "A"), row(5, 0, 2, "E"));
+
+        assertEquals(Arrays.asList("A", "E"), names(service.getLatestColumnarSheet(sheetId, mapping())));
+        assertFullSheetRetrieved();
+    }
+
+    private void assertFullSheetRetrieved() {
+        String lastCall = restClient.calls.get(restClient.calls.size() - 1);
+        assertTrue(lastCall, lastCall.contains(SmartsheetConstants.API_GET_SINGLE_SHEET + sheetId + "?"));
+        assertFalse(lastCall, lastCall.contains("rowsModifiedSince="));
+    }
+
+    private static List<String> names(ColumnarSheet sheet) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < sheet.getRowCount(); i++) {
+            names.add(sheet.getText(ColumnMappingPlan.NAME, i));
+        }
+        return names;
+    }
+
+    private static ValueSet mapping() {
+        ValueSet mapping = new ValueSet();
+        mapping.put(SmartsheetConstants.KEY_TMF_TASK_NAME, String.valueOf(NAME_COLUMN));
+        return mapping;
+    }
+
+    private String sheet(long version, String... rows) {
+        return sheet(version, rows.length, rows);
+    }
+
+    private String sheet(long version, int totalRowCount, String... rows) {
+        return "{\"id\":" + sheetId + ",\"name\":\"Plan\",\"version\":" + version + ",\"totalRowCount\":" + totalRowCount
+                + ",\"modifiedAt\":\"2020-01-0" + version + "T00:00:00Z\",\"columns\":[{\"id\":" + NAME_COLUMN + ",\"index\":0,\"title\":\"Name\",\"type\":\"TEXT_NUMBER\"}],"
+                + "\"rows\":[" + String.join(",", rows) + "]}";
+    }
+
+    /**
+     * @param name null for a blank row.
+     */
+    private static String row(long id, long parentId, int rowNumber, String name) {
+        return "{\"id\":" + id + (parentId == 0 ? "" : ",\"parentId\":" + parentId) + ",\"rowNumber\":" + rowNumber
+                + ",\"cells\":[{\"columnId\":" + NAME_COLUMN + (name == null ? "" : ",\"value\":\"" + name + "\"") + "}]}";
+    }
+
+    /**
+     * Answers the sheet version, the modified rows (when rowsModifiedSince is set) or the whole sheet, whatever the requested page.
+     */
+    private static class FakeRestClient extends SmartsheetRestClient {
+
+        private final List<String> calls = new ArrayList<>();
+
+        private long version = 1;
+
+        private String sheet;
+
+        private String modifiedRows;
+
+        private FakeRestClient() {
+            super(config());
+        }
+
+        private static SmartsheetRestConfig config() {
+            SmartsheetRestConfig config = new SmartsheetRestConfig();
+            config.setAuthToken("token");
+            return config;
+        }
+
+        @Override
+        public ClientResponse sendGet(String uri) {
+            return sendGet(uri, SmartsheetRateLimiter.Priority.INTERACTIVE);
+        }
+
+        @Override
+        public synchronized ClientResponse sendGet(String uri, SmartsheetRateLimiter.Priority priority) {
+            calls.add(uri);
+            if (uri.endsWith("/version")) {
+                return response("{\"version\":" + version + "}");
+            }
+            return response(uri.contains("rowsModifiedSince=") ? modifiedRows : sheet);
+        }
+
+        private static ClientResponse response(String body) {
+            return (ClientResponse)Proxy.newProxyInstance(ClientResponse.class.getClassLoader(), new Class<?>[] {ClientResponse.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getStatusCode":
+                        return 200;
+                    case "getEntity":
+                        return args[0] == String.class ? body : new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.ppm.integration.agilesdk.connector.smartsheet.service;
+
+import com.ppm.integration.agilesdk.connector.smartsheet.model.SmartsheetSheet;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rows are told apart as blank or not from all their cells, while only the cells of the kept columns are returned.
+ * Multi-contact cells only have their contacts in the object value.
+ */
+public class SmartsheetSheetParserTest {
+
+    private static final String SHEET = "{\"id\":1,\"name\":\"Plan\",\"version\":7,\"totalRowCount\":4,\"modifiedAt\":\"2020-01-01T00:00:00Z\","
+            + "\"columns\":[{\"id\":11,\"index\":0,\"title\":\"Name\",\"type\":\"TEXT_NUMBER\"},"
+            + "{\"id\":12,\"index\":1,\"title\":\"Assigned To\",\"type\":\"MULTI_CONTACT_LIST\"},"
+            + "{\"id\":13,\"index\":2,\"title\":\"Comments\",\"type\":\"TEXT_NUMBER\"}],"
+            + "\"rows\":["
+            // Blank row, with empty cells.
+            + "{\"id\":101,\"rowNumber\":1,\"cells\":[{\"columnId\":11},{\"columnId\":12,\"value\":null},{\"columnId\":13}]},"
+            // Value only in a column that is not kept: not blank, but without any kept value.
+            + "{\"id\":102,\"rowNumber\":2,\"parentId\":101,\"cells\":[{\"columnId\":11},{\"columnId\":12},{\"columnId\":13,\"value\":\"Comment\"}]},"
+            // Multi-contact cell, with display names only in the display value.
+            + "{\"id\":103,\"rowNumber\":3,\"cells\":[{\"columnId\":11,\"value\":\"Task\",\"displayValue\":\"Task\"},"
+            + "{\"columnId\":12,\"displayValue\":\"Ann, Bob\",\"objectValue\":{\"objectType\":\"MULTI_CONTACT\",\"values\":["
+            + "{\"objectType\":\"CONTACT\",\"name\":\"Ann\",\"email\":\"ann@example.com\"},{\"objectType\":\"CONTACT\",\"name\":\"Bob\",\"email\":\"bob@example.com\"}]}}]},"
+            // Single contact cell, and an object value of another type.
+            + "{\"id\":104,\"rowNumber\":4,\"cells\":[{\"columnId\":11,\"value\":12.5,\"objectValue\":{\"objectType\":\"PREDECESSOR_LIST\",\"predecessors\":[]}},"
+            + "{\"columnId\":12,\"value\":\"ann@example.com\",\"displayValue\":\"Ann\",\"objectValue\":{\"objectType\":\"CONTACT\",\"email\":\"ann@example.com\"}}]}"
+            + "]}";
+
+    @Test
+    public void blankRowsAreToldApart() throws IOException {
+        List<SmartsheetSheet.SmartsheetRow> rows = new ArrayList<>();
+        List<SmartsheetSheet.SmartsheetRow> blankRows = new ArrayList<>();
+
+        SmartsheetSheet sheet = parse(new HashSet<>(Arrays.asList("11", "12")), rows, blankRows);
+
+        assertEquals("1", sheet.id);
+        assertEquals(7L, sheet.version.longValue());
+        assertEquals(4, sheet.totalRowCount.intValue());
+        assertEquals(3, sheet.columns.length);
+        assertNull(sheet.rows);
+
+        assertEquals(1, blankRows.size());
+        assertEquals(101L, blankRows.get(0).id);
+        assertNull(blankRows.get(0).cells);
+
+        assertEquals(3, rows.size());
+        assertEquals(102L, rows.get(0).id);
+        assertEquals(101L, rows.get(0).parentId);
+        assertEquals(2, rows.get(0).rowNumber.intValue());
+        // Only kept columns are returned, even when they have no value.
+        assertEquals(2, rows.get(0).cells.length);
+        assertNull(rows.get(0).cells[0].value);
+        assertNull(rows.get(0).cells[1].value);
+    }
+
+    @Test
+    public void multiContactCellsGetAllEmails() throws IOException {
+        List<SmartsheetSheet.SmartsheetRow> rows = new ArrayList<>();
+
+        parse(null, rows, null);
+
+        SmartsheetSheet.SmartsheetRow.SmartsheetCell[] cells = rows.get(1).cells;
+        assertEquals("Task", cells[0].value);
+        assertEquals(12L, cells[1].columnId);
+        assertEquals("ann@example.com, bob@example.com", cells[1].value);
+        assertEquals("Ann, Bob", cells[1].displayValue);
+
+        // Other object values never replace the cell value.
+        cells = rows.get(2).cells;
+        assertEquals("12.5", cells[0].value);
+        assertEquals("ann@example.com", cells[1].value);
+    }
+
+    @Test
+    public void headerIsReadBeforeTheFirstRow() throws IOException {
+        List<String> events = new ArrayList<>();
+
+        new SmartsheetSheetParser(null).parse(new ByteArrayInputStream(SHEET.getBytes(StandardCharsets.UTF_8)),
+                header -> events.add("header " + header.columns.length),
+                row -> events.add("row " + row.id),
+                row -> events.add("blank " + row.id));
+
+        assertEquals(Arrays.asList("header 3", "blank 101", "row 102", "row 103", "row 104"), events);
+    }
+
+    private static SmartsheetSheet parse(HashSet<String> keptColumnIds, List<SmartsheetSheet.SmartsheetRow> rows, List<SmartsheetSheet.SmartsheetRow> blankRows) throws IOException {
+        return new SmartsheetSheetParser(keptColumnIds).parse(new ByteArrayInputStream(SHEET.getBytes(StandardCharsets.UTF_8)),
+                null, rows::add, blankRows == null ? null : blankRows::add);
+    }
+}